@@ -0,0 +1,95 @@
+package org.mongodb.etl;
+
+import com.mongodb.MongoClientSettings;
+import org.bson.BsonBinaryWriter;
+import org.bson.Document;
+import org.bson.UuidRepresentation;
+import org.bson.codecs.DocumentCodec;
+import org.bson.codecs.Encoder;
+import org.bson.codecs.EncoderContext;
+import org.bson.codecs.UuidCodec;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.io.BasicOutputBuffer;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.bson.codecs.configuration.CodecRegistries.fromCodecs;
+import static org.bson.codecs.configuration.CodecRegistries.fromRegistries;
+
+/**
+ * BSON encoding of a target document with the generic DocumentCodec against the
+ * {@link TargetDocumentCodec}, as the driver does for every document in an insertMany.
+ *
+ * ./gradlew jmh
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EncodeBenchmark {
+
+    @Param({"group", "member", "userassociation"})
+    public String spec;
+
+    private Document target;
+    private DocumentCodec documentCodec;
+    private TargetDocumentCodec targetCodec;
+    private EncoderContext context;
+    private BasicOutputBuffer buffer;
+
+    @Setup
+    public void setup() throws Exception {
+        CodecRegistry registry = fromRegistries(
+                fromCodecs(new UuidCodec(UuidRepresentation.STANDARD)),
+                MongoClientSettings.getDefaultCodecRegistry());
+        documentCodec = new DocumentCodec(registry);
+        targetCodec = new TargetDocumentCodec(registry);
+        context = EncoderContext.builder().isEncodingCollectibleDocument(true).build();
+        buffer = new BasicOutputBuffer(4096);
+
+        String uuid = UUID.randomUUID().toString();
+        Document source = new Document("id", uuid)
+                .append("groupid", uuid)
+                .append("memberid", 12345)
+                .append("membertype", "user")
+                .append("contextid", "ctx-1")
+                .append("contexttype", 3)
+                .append("name", "group name")
+                .append("parentid", null)
+                .append("permissions", "['read', 'write', 'admin']")
+                .append("system", "system")
+                .append("type", "class")
+                .append("associd", "assoc-1")
+                .append("assocblob", "{\"role\": \"teacher\", \"since\": 2017}")
+                .append("authgroupid", "auth-1")
+                .append("authgrouptype", "school")
+                .append("status", "active")
+                .append("createdat", "2019-08-01 10:11:12")
+                .append("updatedat", "2019-08-02 10:11:12")
+                .append("createdate", "2019-08-01 10:11:12")
+                .append("updatedate", "2019-08-02 10:11:12");
+
+        target = MappingSpec.load("mappings/" + spec + ".yaml").compile().apply(source);
+    }
+
+    @Benchmark
+    public int documentCodec() {
+        return encode(documentCodec);
+    }
+
+    @Benchmark
+    public int targetCodec() {
+        return encode(targetCodec);
+    }
+
+    private int encode(Encoder<Document> encoder) {
+        buffer.truncateToPosition(0);
+        encoder.encode(new BsonBinaryWriter(buffer), target, context);
+        return buffer.getPosition();
+    }
+
+}
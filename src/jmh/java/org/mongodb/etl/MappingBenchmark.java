@@ -0,0 +1,69 @@
+package org.mongodb.etl;
+
+import org.bson.Document;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The interpreted {@link CompiledMapping} against the method handle {@link GeneratedMapping} for the
+ * bundled specs, on a source row shaped like the exports.
+ *
+ * ./gradlew jmh
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MappingBenchmark {
+
+    @Param({"group", "member", "userassociation"})
+    public String spec;
+
+    private Document source;
+    private CompiledMapping interpreted;
+    private GeneratedMapping generated;
+
+    @Setup
+    public void setup() throws Exception {
+        MappingSpec mappingSpec = MappingSpec.load("mappings/" + spec + ".yaml");
+        interpreted = mappingSpec.compile();
+        generated = new GeneratedMapping(mappingSpec.fields);
+
+        String uuid = UUID.randomUUID().toString();
+        source = new Document("id", uuid)
+                .append("groupid", uuid)
+                .append("memberid", 12345)
+                .append("membertype", "user")
+                .append("contextid", "ctx-1")
+                .append("contexttype", 3)
+                .append("name", "group name")
+                .append("parentid", null)
+                .append("permissions", "['read', 'write', 'admin']")
+                .append("system", "system")
+                .append("type", "class")
+                .append("associd", "assoc-1")
+                .append("assocblob", "{\"role\": \"teacher\", \"since\": 2017}")
+                .append("authgroupid", "auth-1")
+                .append("authgrouptype", "school")
+                .append("status", "active")
+                .append("createdat", "2019-08-01 10:11:12")
+                .append("updatedat", "2019-08-02 10:11:12")
+                .append("createdate", "2019-08-01 10:11:12")
+                .append("updatedate", "2019-08-02 10:11:12");
+    }
+
+    @Benchmark
+    public Object interpreted() {
+        return interpreted.apply(source);
+    }
+
+    @Benchmark
+    public Object generated() {
+        return generated.apply(source);
+    }
+
+}
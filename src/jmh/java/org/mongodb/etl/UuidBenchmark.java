@@ -0,0 +1,62 @@
+package org.mongodb.etl;
+
+import com.mongodb.MongoClientSettings;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.UuidRepresentation;
+import org.bson.codecs.Codec;
+import org.bson.codecs.UuidCodec;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.bson.codecs.configuration.CodecRegistries.fromCodecs;
+import static org.bson.codecs.configuration.CodecRegistries.fromRegistries;
+
+/**
+ * UUID.fromString + UuidCodec against the hex-decoding {@link Uuids} fast path, for parsing alone and
+ * for parsing plus BSON encoding of a document holding the value, as the transforms do.
+ *
+ * ./gradlew jmh
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UuidBenchmark {
+
+    private String uuid;
+    private Codec<Document> codec;
+
+    @Setup
+    public void setup() {
+        uuid = UUID.randomUUID().toString();
+        codec = fromRegistries(
+                fromCodecs(new UuidCodec(UuidRepresentation.STANDARD)),
+                MongoClientSettings.getDefaultCodecRegistry()).get(Document.class);
+    }
+
+    @Benchmark
+    public Object parseUuidFromString() {
+        return UUID.fromString(uuid);
+    }
+
+    @Benchmark
+    public Object parseStandardBinary() {
+        return Uuids.toStandardBinary(uuid);
+    }
+
+    @Benchmark
+    public Object encodeUuidFromString() {
+        return new RawBsonDocument(new Document("_id", UUID.fromString(uuid)), codec);
+    }
+
+    @Benchmark
+    public Object encodeStandardBinary() {
+        return new RawBsonDocument(new Document("_id", Uuids.toStandardBinary(uuid)), codec);
+    }
+
+}
@@ -0,0 +1,475 @@
+package org.mongodb.etl;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import com.sun.management.ThreadMXBean;
+import org.bson.Document;
+import reactor.core.publisher.Mono;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.lang.reflect.Method;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Allocation, GC and heap figures of a run, reported at intervals and at the end, so a tuning change
+ * (batch size, concurrency, codec) can be judged from the run's own output.
+ *
+ * Allocation is read from the per thread allocated byte counters. The total is broken down by thread
+ * pool (the thread name without its number): the driver's I/O threads decode the cursor batches and
+ * encode the inserts, while the transform runs on the threads delivering the documents. The transform's
+ * own share is measured around one in 64 transform calls and extrapolated to the documents batched.
+ * Threads ending between two samples lose their last interval. GC pauses and the heap used before each
+ * collection come from the collectors' notifications; the concurrent cycles of ZGC and Shenandoah are
+ * not pauses and are not counted.
+ *
+ * With etl.alloc.jfr a Flight Recorder recording with the "profile" settings is written to the file,
+ * with custom events for the time to extract and transform each batch, sampled transforms with their
+ * allocation, and each batch insert up to its acknowledgement. The JFR API is used reflectively, and is
+ * only there on JDK 11 and later (or 8u262 and later); otherwise the recording is skipped.
+ *
+ * System properties:
+ *   etl.alloc                 - "true" to report allocation, GC and heap figures
+ *   etl.alloc.intervalSeconds - reporting interval while loading (default 10, 0 for only the final report)
+ *   etl.alloc.jfr             - file to write a Flight Recorder recording with the batch events to
+ */
+class AllocationProfiler {
+
+    private static final int SAMPLE = 64;
+    private static final double MB = 1024 * 1024;
+
+    private final ThreadMXBean threads;
+    private final long intervalMillis;
+    private final String jfrFile;
+
+    private final Map<Long, Long> threadBytes = new HashMap<>();
+    private final Map<Long, String> threadPools = new HashMap<>();
+    private final Map<String, Long> poolBytes = new TreeMap<>();
+    private final Map<String, long[]> pauses = new TreeMap<>();
+    private final List<NotificationEmitter> collectors = new ArrayList<>();
+    private final Set<String> heapPools = new HashSet<>();
+    private final NotificationListener listener = this::collected;
+
+    private final LongAdder batchedDocs = new LongAdder();
+    private final LongAdder sampledDocs = new LongAdder();
+    private final LongAdder sampledBytes = new LongAdder();
+    private final LongAccumulator maxPause = new LongAccumulator(Math::max, 0);
+    private final LongAccumulator peakHeap = new LongAccumulator(Math::max, 0);
+    private final AtomicReference<Object> batchEvent = new AtomicReference<>();
+
+    private long allocated;
+    private long start;
+    private long lastReport;
+    private long lastAllocated;
+    private long lastGcCount;
+    private long lastGcMillis;
+    private long lastTransformBytes;
+    private ScheduledExecutorService scheduler;
+    private volatile Jfr jfr;
+
+    AllocationProfiler(ThreadMXBean threads, long intervalMillis, String jfrFile) {
+        this.threads = threads;
+        this.intervalMillis = intervalMillis;
+        this.jfrFile = jfrFile;
+    }
+
+    /**
+     * Creates the profiler configured by system properties, or null if profiling is not enabled.
+     */
+    static AllocationProfiler fromProperties() {
+        String jfrFile = System.getProperty("etl.alloc.jfr");
+        if (!Boolean.getBoolean("etl.alloc") && jfrFile == null)
+            return null;
+
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        ThreadMXBean threads = null;
+        if (bean instanceof ThreadMXBean && ((ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+            threads = (ThreadMXBean) bean;
+            threads.setThreadAllocatedMemoryEnabled(true);
+        } else {
+            System.out.println("thread allocation counters are not supported by this JVM, reporting GC only");
+        }
+
+        return new AllocationProfiler(threads,
+                TimeUnit.SECONDS.toMillis(Long.getLong("etl.alloc.intervalSeconds", 10)), jfrFile);
+    }
+
+    /**
+     * Takes the baseline and starts the interval reports and the recording.
+     */
+    void start() {
+        threadBytes.clear();
+        threadPools.clear();
+        poolBytes.clear();
+        pauses.clear();
+        batchedDocs.reset();
+        sampledDocs.reset();
+        sampledBytes.reset();
+        maxPause.reset();
+        peakHeap.reset();
+        lastAllocated = 0;
+        lastTransformBytes = 0;
+
+        // the baseline, allocation before the run is not counted
+        sampleThreads();
+        allocated = 0;
+        poolBytes.clear();
+
+        heapPools.clear();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP)
+                heapPools.add(pool.getName());
+        }
+
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (gc instanceof NotificationEmitter) {
+                ((NotificationEmitter) gc).addNotificationListener(listener, null, null);
+                collectors.add((NotificationEmitter) gc);
+            }
+        }
+        lastGcCount = gcCount();
+        lastGcMillis = gcMillis();
+
+        if (jfrFile != null)
+            jfr = Jfr.start(jfrFile);
+
+        start = lastReport = System.currentTimeMillis();
+        if (jfr != null)
+            batchEvent.set(jfr.begin(jfr.batch));
+
+        if (intervalMillis > 0) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "etl-alloc");
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.scheduleAtFixedRate(this::report, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Stops the reports and the recording, and prints the figures of the whole run.
+     */
+    void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+
+        synchronized (this) {
+            sampleThreads();
+        }
+
+        for (NotificationEmitter collector : collectors) {
+            try {
+                collector.removeNotificationListener(listener);
+            } catch (Exception e) {
+                // already removed
+            }
+        }
+        collectors.clear();
+
+        if (jfr != null) {
+            jfr.stop();
+            System.out.println("flight recording written to " + jfrFile);
+            jfr = null;
+        }
+
+        double seconds = Math.max(1, System.currentTimeMillis() - start) / 1000.0;
+        long heapMax = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getMax();
+
+        if (threads != null) {
+            List<String> pools = new ArrayList<>();
+            poolBytes.entrySet().stream()
+                    .sorted((a, b) -> Long.compare(b.getValue(), a.getValue()))
+                    .limit(6)
+                    .forEach(pool -> pools.add(pool.getKey() + " " + mb(pool.getValue())));
+
+            System.out.println("allocated " + mb(allocated) + " (" + mb(allocated / seconds) + "/s), transform ~" +
+                    mb(transformBytes()) + " (" + perDoc() + "), by thread pool " + pools);
+        }
+
+        List<String> collections = new ArrayList<>();
+        pauses.forEach((name, stats) -> collections.add(name + " " + stats[0] + " in " + stats[1] + "ms"));
+        System.out.println("gc pauses " + collections + ", max " + maxPause.get() + "ms, " +
+                String.format("%.1f%%", 100.0 * totalPauseMillis() / (seconds * 1000)) + " of the run; peak heap " +
+                mb(peakHeap.get()) + (heapMax > 0 ? " of " + mb(heapMax) : ""));
+    }
+
+    /**
+     * Applies the transform, measuring the allocation of a sample of the calls.
+     */
+    Mono<Document> transform(Document doc, Function<Document, Mono<Document>> transform) {
+        if (threads == null && jfr == null || ThreadLocalRandom.current().nextInt(SAMPLE) != 0)
+            return transform.apply(doc);
+
+        Object event = jfr == null ? null : jfr.begin(jfr.transform);
+        long thread = Thread.currentThread().getId();
+        long before = threads == null ? 0 : threads.getThreadAllocatedBytes(thread);
+
+        Mono<Document> result = transform.apply(doc);
+
+        long bytes = threads == null ? 0 : threads.getThreadAllocatedBytes(thread) - before;
+        sampledDocs.increment();
+        sampledBytes.add(bytes);
+        if (event != null)
+            jfr.commit(event, bytes);
+        return result;
+    }
+
+    /**
+     * Called as each batch of transformed documents is complete. Its event spans the time since the
+     * previous batch, the time the extract and transform took to fill it.
+     */
+    void batched(int docs) {
+        batchedDocs.add(docs);
+
+        if (jfr != null)
+            jfr.commit(batchEvent.getAndSet(jfr.begin(jfr.batch)), docs);
+    }
+
+    /**
+     * Records the insert of a batch, from its subscription to its acknowledgement.
+     */
+    <T> Mono<T> insert(int docs, Mono<T> insert) {
+        if (jfr == null)
+            return insert;
+
+        return Mono.defer(() -> {
+            Object event = jfr.begin(jfr.insert);
+            return insert.doFinally(signal -> jfr.commit(event, docs));
+        });
+    }
+
+    private synchronized void report() {
+        sampleThreads();
+
+        long now = System.currentTimeMillis();
+        double seconds = Math.max(1, now - lastReport) / 1000.0;
+        long gcCount = gcCount();
+        long gcMillis = gcMillis();
+        long transform = transformBytes();
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        peakHeap.accumulate(heap.getUsed());
+
+        System.out.println((threads == null ? "" :
+                "alloc " + mb((allocated - lastAllocated) / seconds) + "/s (transform ~" +
+                        mb((transform - lastTransformBytes) / seconds) + "/s, " + perDoc() + "), ") +
+                "gc " + (gcCount - lastGcCount) + " in " + (gcMillis - lastGcMillis) + "ms (" +
+                String.format("%.1f%%", 100.0 * (gcMillis - lastGcMillis) / (seconds * 1000)) + "), heap " +
+                mb(heap.getUsed()) + ", peak " + mb(peakHeap.get()));
+
+        lastReport = now;
+        lastAllocated = allocated;
+        lastTransformBytes = transform;
+        lastGcCount = gcCount;
+        lastGcMillis = gcMillis;
+    }
+
+    /**
+     * Adds the bytes allocated by every live thread since the previous sample to the totals.
+     */
+    private void sampleThreads() {
+        if (threads == null)
+            return;
+
+        long[] ids = threads.getAllThreadIds();
+        long[] bytes = threads.getThreadAllocatedBytes(ids);
+        for (int i = 0; i < ids.length; i++) {
+            if (bytes[i] < 0)
+                continue;
+
+            Long previous = threadBytes.put(ids[i], bytes[i]);
+            long delta = bytes[i] - (previous == null ? 0 : previous);
+            allocated += delta;
+            poolBytes.merge(pool(ids[i]), delta, Long::sum);
+        }
+    }
+
+    private String pool(long id) {
+        return threadPools.computeIfAbsent(id, key -> {
+            java.lang.management.ThreadInfo info = threads.getThreadInfo(key);
+            return info == null ? "unknown" : info.getThreadName().replaceAll("[-_#\\d]+$", "");
+        });
+    }
+
+    private void collected(Notification notification, Object handback) {
+        if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType()))
+            return;
+
+        GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+        // the usage covers every pool, metaspace and the code cache included
+        long used = 0;
+        for (Map.Entry<String, MemoryUsage> pool : info.getGcInfo().getMemoryUsageBeforeGc().entrySet()) {
+            if (heapPools.contains(pool.getKey()))
+                used += pool.getValue().getUsed();
+        }
+        peakHeap.accumulate(used);
+
+        // concurrent collectors report whole cycles besides their pauses
+        if (info.getGcAction().contains("cycle") || info.getGcName().contains("Cycles"))
+            return;
+
+        long millis = info.getGcInfo().getDuration();
+        maxPause.accumulate(millis);
+        synchronized (pauses) {
+            long[] stats = pauses.computeIfAbsent(info.getGcName(), name -> new long[2]);
+            stats[0]++;
+            stats[1] += millis;
+        }
+    }
+
+    private long totalPauseMillis() {
+        long total = 0;
+        synchronized (pauses) {
+            for (long[] stats : pauses.values())
+                total += stats[1];
+        }
+        return total;
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+            count += Math.max(0, gc.getCollectionCount());
+        return count;
+    }
+
+    private static long gcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+            millis += Math.max(0, gc.getCollectionTime());
+        return millis;
+    }
+
+    private long transformBytes() {
+        long sampled = sampledDocs.sum();
+        return sampled == 0 ? 0 : sampledBytes.sum() / sampled * batchedDocs.sum();
+    }
+
+    private String perDoc() {
+        long sampled = sampledDocs.sum();
+        return (sampled == 0 ? 0 : sampledBytes.sum() / sampled) + " B/doc";
+    }
+
+    private static String mb(double bytes) {
+        return String.format("%.1fMB", bytes / MB);
+    }
+
+    /**
+     * Flight Recorder recording and dynamic event types, through reflection so the build does not
+     * depend on jdk.jfr.
+     */
+    private static final class Jfr {
+
+        private final Object recording;
+        private final Object batch;
+        private final Object transform;
+        private final Object insert;
+        private final Method newEvent;
+        private final Method begin;
+        private final Method end;
+        private final Method set;
+        private final Method commit;
+
+        private Jfr(Object recording, Object batch, Object transform, Object insert) throws ReflectiveOperationException {
+            this.recording = recording;
+            this.batch = batch;
+            this.transform = transform;
+            this.insert = insert;
+
+            Class<?> eventClass = Class.forName("jdk.jfr.Event");
+            newEvent = Class.forName("jdk.jfr.EventFactory").getMethod("newEvent");
+            begin = eventClass.getMethod("begin");
+            end = eventClass.getMethod("end");
+            set = eventClass.getMethod("set", int.class, Object.class);
+            commit = eventClass.getMethod("commit");
+        }
+
+        /**
+         * Starts the recording, or returns null if this JVM has no Flight Recorder API.
+         */
+        static Jfr start(String file) {
+            try {
+                Class<?> configurationClass = Class.forName("jdk.jfr.Configuration");
+                Class<?> recordingClass = Class.forName("jdk.jfr.Recording");
+                Object configuration = configurationClass.getMethod("getConfiguration", String.class).invoke(null, "profile");
+                Object recording = recordingClass.getConstructor(configurationClass).newInstance(configuration);
+                recordingClass.getMethod("setDestination", java.nio.file.Path.class).invoke(recording, Paths.get(file));
+
+                Jfr jfr = new Jfr(recording,
+                        eventType("Batch", "Extract and transform of a batch", "docs"),
+                        eventType("Transform", "Sampled document transform", "allocated"),
+                        eventType("Insert", "Batch insert until acknowledged", "docs"));
+
+                recordingClass.getMethod("start").invoke(recording);
+                return jfr;
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                System.out.println("flight recording not started, jdk.jfr is not available: " + e);
+                return null;
+            }
+        }
+
+        private static Object eventType(String name, String description, String field) throws ReflectiveOperationException {
+            Class<?> annotationClass = Class.forName("jdk.jfr.AnnotationElement");
+            Class<?> descriptorClass = Class.forName("jdk.jfr.ValueDescriptor");
+
+            List<Object> annotations = Arrays.asList(
+                    annotationClass.getConstructor(Class.class, Object.class).newInstance(Class.forName("jdk.jfr.Name"), "org.mongodb.etl." + name),
+                    annotationClass.getConstructor(Class.class, Object.class).newInstance(Class.forName("jdk.jfr.Label"), name),
+                    annotationClass.getConstructor(Class.class, Object.class).newInstance(Class.forName("jdk.jfr.Description"), description),
+                    annotationClass.getConstructor(Class.class, Object.class).newInstance(Class.forName("jdk.jfr.Category"), new String[]{"ETL"}));
+            List<Object> fields = Collections.singletonList(
+                    descriptorClass.getConstructor(Class.class, String.class).newInstance(long.class, field));
+
+            return Class.forName("jdk.jfr.EventFactory").getMethod("create", List.class, List.class).invoke(null, annotations, fields);
+        }
+
+        Object begin(Object type) {
+            try {
+                Object event = newEvent.invoke(type);
+                begin.invoke(event);
+                return event;
+            } catch (ReflectiveOperationException e) {
+                return null;
+            }
+        }
+
+        void commit(Object event, long value) {
+            if (event == null)
+                return;
+            try {
+                end.invoke(event);
+                set.invoke(event, 0, value);
+                commit.invoke(event);
+            } catch (ReflectiveOperationException e) {
+                // the recording is best effort
+            }
+        }
+
+        void stop() {
+            try {
+                recording.getClass().getMethod("stop").invoke(recording);
+                recording.getClass().getMethod("close").invoke(recording);
+            } catch (ReflectiveOperationException e) {
+                System.out.println("flight recording not written: " + e);
+            }
+        }
+    }
+
+}
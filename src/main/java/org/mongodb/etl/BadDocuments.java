@@ -0,0 +1,93 @@
+package org.mongodb.etl;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.bson.Document;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts source documents a transform could not (fully) map, and logs a rate limited sample of them.
+ *
+ * Every bad document is counted, by exception type, so the summary is exact however dirty the data.
+ * Only every n-th one is a logging candidate, and candidates are dropped once the per second budget is
+ * spent, so formatting the document as JSON and writing the stack trace stay off the transform threads
+ * when the data goes bad. Logging goes through the asynchronous log4j2 loggers (see
+ * log4j2.component.properties), which discard rather than block if their ring buffer is full.
+ *
+ * System properties:
+ *   etl.badDocs.sample       - log one in this many bad documents (default 1)
+ *   etl.badDocs.logPerSecond - most bad documents logged per second (default 10, 0 for unlimited)
+ */
+class BadDocuments {
+
+    private static final Logger logger = LogManager.getLogger(BadDocuments.class);
+
+    private final long sample;
+    private final TokenBucket logBudget;
+
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong logged = new AtomicLong();
+    private final Map<String, LongAdder> byCause = new ConcurrentHashMap<>();
+    private volatile boolean muted;
+
+    BadDocuments(long sample, double logPerSecond) {
+        this.sample = Math.max(1, sample);
+        this.logBudget = new TokenBucket(logPerSecond);
+    }
+
+    static BadDocuments fromProperties() {
+        return new BadDocuments(
+                Long.getLong("etl.badDocs.sample", 1),
+                Double.parseDouble(System.getProperty("etl.badDocs.logPerSecond", "10")));
+    }
+
+    /**
+     * Counts a bad source document and logs it if it is sampled and within the logging budget.
+     */
+    void record(Document doc, Throwable cause) {
+        if (muted)
+            return;
+
+        long n = total.incrementAndGet();
+        byCause.computeIfAbsent(cause.getClass().getSimpleName(), key -> new LongAdder()).increment();
+
+        if (n % sample != 0 || !logBudget.tryAcquire(1))
+            return;
+
+        logged.incrementAndGet();
+        logger.warn("bad source document {}", doc.toJson(), cause);
+    }
+
+    /**
+     * Ignores the bad documents of the transforms that follow, e.g. the {@link Verifier}'s re-transforms
+     * of documents already counted and logged by the run.
+     */
+    void mute(boolean muted) {
+        this.muted = muted;
+    }
+
+    long count() {
+        return total.get();
+    }
+
+    void reset() {
+        total.set(0);
+        logged.set(0);
+        byCause.clear();
+    }
+
+    void printSummary() {
+        if (total.get() == 0)
+            return;
+
+        Map<String, Long> causes = new TreeMap<>();
+        byCause.forEach((cause, count) -> causes.put(cause, count.sum()));
+        System.out.println("bad documents: " + total.get() + " " + causes + ", logged " + logged.get());
+    }
+
+}
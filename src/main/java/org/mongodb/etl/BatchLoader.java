@@ -0,0 +1,306 @@
+package org.mongodb.etl;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoException;
+import com.mongodb.MongoNodeIsRecoveringException;
+import com.mongodb.MongoNotPrimaryException;
+import com.mongodb.MongoSocketException;
+import com.mongodb.MongoTimeoutException;
+import com.mongodb.MongoWriteConcernException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.InsertManyOptions;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.WriteModel;
+import com.mongodb.reactivestreams.client.MongoClient;
+import com.mongodb.reactivestreams.client.MongoCollection;
+import com.mongodb.reactivestreams.client.Success;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.bson.BsonMaximumSizeExceededException;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.Codec;
+import org.bson.conversions.Bson;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Unordered insertMany that survives partial failures.
+ *
+ * When a batch fails with a MongoBulkWriteException only the failed indexes are looked at: transient
+ * errors (elections, network, write conflicts) are re-submitted after a jittered exponential backoff,
+ * permanent ones (duplicate keys, validation, too large) go to the reject collection together with the
+ * error, and the rest of the batch counts as loaded. A transient failure of the whole batch (socket,
+ * timeout, not primary) re-submits the whole batch. Because the driver assigns the _ids before the
+ * first attempt, a duplicate _id on a retry means the document landed in an earlier attempt and it is
+ * counted as loaded. Transient failures that outlast the retries fail the run as before.
+ *
+ * The {@link DeltaSync} upserts go through the same handling, as a bulk write of replacements on the
+ * natural key. An upsert racing another upsert of the same key fails once with a duplicate key and
+ * matches the other's document on the retry, so a duplicate key is retried once before it is rejected.
+ * The {@link Deduplicator}'s replacements of loaded documents by later duplicates go through it too.
+ *
+ * A {@link WorkQueue} worker sets the lease fence of its unit: every retry checks it again after the
+ * backoff and drops the documents once the lease is no longer held, since the unit is abandoned.
+ *
+ * System properties:
+ *   etl.retry.attempts  - attempts per batch including the first (default 5)
+ *   etl.retry.baseMillis - first backoff, doubled per attempt with full jitter (default 100)
+ *   etl.retry.maxMillis  - backoff cap (default 10000)
+ *   etl.reject.ns        - reject collection (default: the target namespace + "_rejects")
+ */
+class BatchLoader {
+
+    private static final Logger logger = LogManager.getLogger(BatchLoader.class);
+
+    private static final int MAX_BSON_SIZE = 16 * 1024 * 1024;
+
+    // NotMaster*, recovering, shutdown, network, time limit, write conflict and lock timeout codes
+    private static final Set<Integer> TRANSIENT = new HashSet<>(Arrays.asList(
+            6, 7, 89, 91, 112, 189, 262, 9001, 10107, 11600, 11602, 13435, 13436, 24));
+
+    private final MongoCollection<Document> rejects;
+    private final InsertManyOptions options;
+    private final AtomicLong loaded;
+    private final int attempts;
+    private final long baseMillis;
+    private final long maxMillis;
+
+    private final AtomicLong retried = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    private volatile Mono<Boolean> fence;
+
+    BatchLoader(MongoCollection<Document> rejects, InsertManyOptions options, AtomicLong loaded,
+                int attempts, long baseMillis, long maxMillis) {
+        this.rejects = rejects;
+        this.options = options;
+        this.loaded = loaded;
+        this.attempts = attempts;
+        this.baseMillis = baseMillis;
+        this.maxMillis = maxMillis;
+    }
+
+    static BatchLoader fromProperties(MongoClient client, String tgtNs, InsertManyOptions options, AtomicLong loaded) {
+        String ns = System.getProperty("etl.reject.ns", tgtNs + "_rejects");
+        String[] split = ns.split("\\.");
+        if (split.length != 2) {
+            throw new IllegalArgumentException("reject namespace is not valid (" + ns + ")");
+        }
+
+        return new BatchLoader(
+                client.getDatabase(split[0]).getCollection(split[1]),
+                options,
+                loaded,
+                Integer.getInteger("etl.retry.attempts", 5),
+                Long.getLong("etl.retry.baseMillis", 100),
+                Long.getLong("etl.retry.maxMillis", 10000));
+    }
+
+    /**
+     * Inserts the batch, counting every document that landed in the loaded counter.
+     */
+    Mono<Success> insert(MongoCollection<Document> target, List<Document> batch) {
+        return write(target, batch, null, 0);
+    }
+
+    /**
+     * Replaces existing documents only, each the one matching its key filter, counting the replacements
+     * in the given counter rather than the loaded one. Used for the {@link Deduplicator}'s later duplicates.
+     */
+    Mono<Success> replace(MongoCollection<Document> target, List<Document> batch, Function<Document, Bson> keyFilter,
+                          AtomicLong replaced) {
+        return write(target, batch, new Replace(keyFilter, false, replaced), 0);
+    }
+
+    /**
+     * Upserts the batch, each document replacing the target document matching its key filter, counting
+     * every document that landed in the loaded counter.
+     */
+    Mono<Success> upsert(MongoCollection<Document> target, List<Document> batch, Function<Document, Bson> keyFilter) {
+        return write(target, batch, new Replace(keyFilter, true, loaded), 0);
+    }
+
+    /**
+     * Sets the lease check to repeat before each retry, or null outside a leased unit.
+     */
+    void fence(Mono<Boolean> fence) {
+        this.fence = fence;
+    }
+
+    /**
+     * Drops the rejects of a previous run.
+     */
+    void reset() {
+        Mono.from(rejects.drop()).block();
+        retried.set(0);
+        rejected.set(0);
+    }
+
+    void printSummary() {
+        if (retried.get() > 0 || rejected.get() > 0) {
+            System.out.println("load retried " + retried.get() + " documents, rejected " + rejected.get() +
+                    " to " + rejects.getNamespace().getFullName());
+        }
+    }
+
+    /**
+     * Inserts the batch, or replaces by key filter if a replace is given.
+     */
+    private Mono<Success> write(MongoCollection<Document> target, List<Document> batch, Replace replace, int attempt) {
+        Mono<Success> write = replace == null
+                ? Mono.from(target.insertMany(batch, options))
+                : Mono.from(target.bulkWrite(replace.models(batch), new BulkWriteOptions().ordered(false)))
+                        .map(result -> Success.SUCCESS);
+
+        AtomicLong counter = replace == null ? loaded : replace.counter;
+        return write
+                .doOnSuccess(success -> counter.addAndGet(batch.size()))
+                .onErrorResume(e -> recover(target, batch, replace, attempt, e));
+    }
+
+    private Mono<Success> recover(MongoCollection<Document> target, List<Document> batch,
+                                  Replace replace, int attempt, Throwable e) {
+
+        if (e instanceof MongoBulkWriteException) {
+            List<Document> retry = new ArrayList<>();
+            List<Document> rejectDocs = new ArrayList<>();
+            int landedEarlier = 0;
+
+            for (BulkWriteError error : ((MongoBulkWriteException) e).getWriteErrors()) {
+                Document doc = batch.get(error.getIndex());
+                if (replace == null && attempt > 0 && duplicateId(error.getCode(), error.getMessage())) {
+                    landedEarlier++;
+                } else if (TRANSIENT.contains(error.getCode()) || (replace != null && error.getCode() == 11000 && attempt == 0)) {
+                    retry.add(doc);
+                } else {
+                    rejectDocs.add(reject(doc, error.getCode(), error.getMessage(), attempt));
+                }
+            }
+
+            int failed = ((MongoBulkWriteException) e).getWriteErrors().size();
+            (replace == null ? loaded : replace.counter).addAndGet(batch.size() - failed + landedEarlier);
+
+            return rejectAll(rejectDocs).then(retry(target, retry, replace, attempt, e));
+        }
+
+        if (e instanceof BsonMaximumSizeExceededException) {
+            // the driver refuses the whole batch, split off the documents over the limit
+            Codec<Document> codec = target.getCodecRegistry().get(Document.class);
+            List<Document> fits = new ArrayList<>(batch.size());
+            List<Document> rejectDocs = new ArrayList<>();
+
+            for (Document doc : batch) {
+                int size = new RawBsonDocument(doc, codec).getByteBuffer().remaining();
+                if (size > MAX_BSON_SIZE) {
+                    rejectDocs.add(new Document("_id", doc.get("_id"))
+                            .append("size", size)
+                            .append("code", 10334)
+                            .append("message", e.getMessage())
+                            .append("attempts", attempt + 1)
+                            .append("rejectedAt", new Date()));
+                } else {
+                    fits.add(doc);
+                }
+            }
+
+            if (rejectDocs.isEmpty())
+                return Mono.error(e);
+
+            return rejectAll(rejectDocs).then(fits.isEmpty() ? Mono.<Success>empty() : write(target, fits, replace, attempt));
+        }
+
+        if (transientFailure(e))
+            return retry(target, batch, replace, attempt, e);
+
+        return Mono.error(e);
+    }
+
+    private Mono<Success> retry(MongoCollection<Document> target, List<Document> docs,
+                                Replace replace, int attempt, Throwable cause) {
+        if (docs.isEmpty())
+            return Mono.empty();
+
+        if (attempt + 1 >= attempts) {
+            return Mono.error(new IllegalStateException(docs.size() + " documents still failing after " + attempts +
+                    " attempts", cause));
+        }
+
+        retried.addAndGet(docs.size());
+        long cap = Math.min(maxMillis, baseMillis << Math.min(attempt, 20));
+        long backoff = ThreadLocalRandom.current().nextLong(cap + 1);
+
+        logger.warn("retrying {} documents in {}ms (attempt {} of {}): {}",
+                docs.size(), backoff, attempt + 2, attempts, cause.getMessage());
+
+        Mono<Success> again = write(target, docs, replace, attempt + 1);
+        Mono<Boolean> held = fence;
+        return Mono.delay(Duration.ofMillis(backoff))
+                .then(held == null ? again : held.flatMap(ok -> ok ? again : Mono.empty()));
+    }
+
+    private Mono<Void> rejectAll(List<Document> docs) {
+        if (docs.isEmpty())
+            return Mono.empty();
+
+        rejected.addAndGet(docs.size());
+        return Mono.from(rejects.insertMany(docs, new InsertManyOptions().ordered(false)))
+                .onErrorResume(e -> {
+                    logger.error("unable to write {} rejects: {}", docs.size(), e.getMessage());
+                    return Mono.empty();
+                })
+                .then();
+    }
+
+    private static Document reject(Document doc, int code, String message, int attempt) {
+        return new Document("code", code)
+                .append("message", message)
+                .append("attempts", attempt + 1)
+                .append("rejectedAt", new Date())
+                .append("doc", doc);
+    }
+
+    private static boolean duplicateId(int code, String message) {
+        return code == 11000 && message != null && message.contains("index: _id_ ");
+    }
+
+    private static boolean transientFailure(Throwable e) {
+        if (e instanceof MongoSocketException || e instanceof MongoTimeoutException ||
+                e instanceof MongoNotPrimaryException || e instanceof MongoNodeIsRecoveringException ||
+                e instanceof MongoWriteConcernException)
+            return true;
+        return e instanceof MongoException && TRANSIENT.contains(((MongoException) e).getCode());
+    }
+
+    /**
+     * A batch written as replacements of the documents matching each key filter, inserting the missing
+     * ones if upsert is set, and counted in the counter once acknowledged.
+     */
+    private static final class Replace {
+
+        final Function<Document, Bson> keyFilter;
+        final boolean upsert;
+        final AtomicLong counter;
+
+        Replace(Function<Document, Bson> keyFilter, boolean upsert, AtomicLong counter) {
+            this.keyFilter = keyFilter;
+            this.upsert = upsert;
+            this.counter = counter;
+        }
+
+        List<WriteModel<Document>> models(List<Document> batch) {
+            List<WriteModel<Document>> models = new ArrayList<>(batch.size());
+            for (Document doc : batch)
+                models.add(new ReplaceOneModel<>(keyFilter.apply(doc), doc, new ReplaceOptions().upsert(upsert)));
+            return models;
+        }
+    }
+
+}
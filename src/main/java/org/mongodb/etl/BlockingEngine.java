@@ -0,0 +1,255 @@
+package org.mongodb.etl;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoNamespace;
+import com.mongodb.WriteConcern;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.Filters;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread per stage alternative to the Flux pipeline, on the synchronous driver.
+ *
+ * One blocking reader per {@link KeyRange} pages through its range of the source, a pool of transform
+ * workers maps the documents into target batches and N writers insert the batches. The stages are
+ * connected by bounded queues, so a slow stage blocks the ones before it the way backpressure does in
+ * the Flux pipeline, and a stack trace shows exactly which stage a thread is in. On a JDK with virtual
+ * threads (21+) every stage runs on one; on older JDKs the same code runs on platform threads.
+ *
+ * Dedup, enrichment, the referential check and the throttle are applied by blocking on them. Failed
+ * inserts are not retried: the documents that landed are counted and the run fails. The work queue is
+ * not supported.
+ *
+ * System properties:
+ *   etl.engine              - "blocking" to use this engine instead of the Flux pipeline
+ *   etl.engine.partitions   - source readers, 16 or 256 key ranges (default 16)
+ *   etl.engine.transformers - transform workers (default etl.concurrency)
+ *   etl.engine.writers      - insertMany writers (default etl.concurrency)
+ *   etl.engine.queueDepth   - chunks or batches queued per consumer between stages (default 2)
+ */
+class BlockingEngine {
+
+    private static final int CHUNK = 1000;
+    private static final List<Document> END = Collections.emptyList();
+
+    private final Runner runner;
+    private final String srcUri;
+    private final String tgtUri;
+    private final int partitions;
+    private final int transformers;
+    private final int writers;
+    private final int queueDepth;
+
+    BlockingEngine(Runner runner, String srcUri, String tgtUri, int partitions, int transformers, int writers,
+                   int queueDepth) {
+        this.runner = runner;
+        this.srcUri = srcUri;
+        this.tgtUri = tgtUri;
+        this.partitions = partitions;
+        this.transformers = transformers;
+        this.writers = writers;
+        this.queueDepth = queueDepth;
+    }
+
+    static BlockingEngine fromProperties(Runner runner, String srcUri, String tgtUri) {
+        return new BlockingEngine(runner, srcUri, tgtUri,
+                Integer.getInteger("etl.engine.partitions", 16),
+                Integer.getInteger("etl.engine.transformers", runner.concurrency),
+                Integer.getInteger("etl.engine.writers", runner.concurrency),
+                Integer.getInteger("etl.engine.queueDepth", 2));
+    }
+
+    /**
+     * Extracts, transforms and loads the source documents matching the filter into the target, counting
+     * them in the runner's loaded counter.
+     */
+    void load(Bson filter, WriteConcern writeConcern) {
+        List<KeyRange> ranges = KeyRange.split(partitions);
+
+        try (MongoClient srcClient = MongoClients.create(Runner.clientSettings(srcUri, ranges.size() + 2));
+             MongoClient tgtClient = MongoClients.create(Runner.clientSettings(tgtUri, writers + 2))) {
+
+            MongoCollection<Document> src = collection(srcClient, runner.src.getNamespace())
+                    .withReadPreference(runner.src.getReadPreference());
+            MongoCollection<Document> tgt = collection(tgtClient, runner.tgt.getNamespace())
+                    .withWriteConcern(writeConcern);
+
+            ThreadFactory virtual = virtualThreads();
+            System.out.println("blocking engine: " + ranges.size() + " readers, " + transformers + " transformers, " +
+                    writers + " writers on " + (virtual != null ? "virtual" : "platform") + " threads");
+
+            run(ranges, filter, src, tgt, virtual != null ? virtual : platformThreads());
+        }
+    }
+
+    private void run(List<KeyRange> ranges, Bson filter, MongoCollection<Document> src, MongoCollection<Document> tgt,
+                     ThreadFactory threads) {
+
+        BlockingQueue<List<Document>> extracted = new ArrayBlockingQueue<>(transformers * queueDepth);
+        BlockingQueue<List<Document>> batches = new ArrayBlockingQueue<>(writers * queueDepth);
+        AtomicInteger readersLeft = new AtomicInteger(ranges.size());
+        AtomicInteger transformersLeft = new AtomicInteger(transformers);
+
+        ExecutorService executor = Executors.newCachedThreadPool(threads);
+        CompletionService<Void> stages = new ExecutorCompletionService<>(executor);
+
+        for (KeyRange range : ranges) {
+            stages.submit(() -> {
+                read(src, range, filter, extracted);
+                if (readersLeft.decrementAndGet() == 0)
+                    end(extracted, transformers);
+                return null;
+            });
+        }
+        for (int i = 0; i < transformers; i++) {
+            stages.submit(() -> {
+                transform(extracted, batches);
+                if (transformersLeft.decrementAndGet() == 0)
+                    end(batches, writers);
+                return null;
+            });
+        }
+        for (int i = 0; i < writers; i++) {
+            stages.submit(() -> {
+                write(batches, tgt);
+                return null;
+            });
+        }
+
+        try {
+            for (int i = 0; i < ranges.size() + transformers + writers; i++)
+                stages.take().get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("blocking engine failed: " + e.getCause().getMessage(), e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted waiting for the blocking engine", e);
+        } finally {
+            // a failed stage leaves the others blocked on their queues
+            executor.shutdownNow();
+        }
+    }
+
+    private void read(MongoCollection<Document> src, KeyRange range, Bson filter,
+                      BlockingQueue<List<Document>> extracted) throws InterruptedException {
+
+        Bson query = filter == null ? range.source(runner.sourceKey()) : Filters.and(filter, range.source(runner.sourceKey()));
+
+        try (MongoCursor<Document> cursor = src.find(query).projection(runner.projection())
+                .batchSize(runner.batchSize).iterator()) {
+
+            List<Document> chunk = new ArrayList<>(CHUNK);
+            while (!runner.shutdown.stopping() && cursor.hasNext()) {
+                if (runner.throttle != null)
+                    runner.throttle.read().block();
+
+                chunk.add(cursor.next());
+                if (chunk.size() == CHUNK) {
+                    extracted.put(chunk);
+                    chunk = new ArrayList<>(CHUNK);
+                }
+            }
+            if (!chunk.isEmpty())
+                extracted.put(chunk);
+        }
+    }
+
+    private void transform(BlockingQueue<List<Document>> extracted, BlockingQueue<List<Document>> batches)
+            throws InterruptedException {
+
+        List<Document> batch = new ArrayList<>(runner.batchSize);
+
+        for (List<Document> chunk = extracted.take(); chunk != END; chunk = extracted.take()) {
+            for (Document doc : chunk) {
+                Document target = runner.transform(doc).block();
+                if (target == null)
+                    continue;
+
+                batch.add(target);
+                if (batch.size() == runner.batchSize) {
+                    batches.put(batch);
+                    batch = new ArrayList<>(runner.batchSize);
+                }
+            }
+        }
+        if (!batch.isEmpty())
+            batches.put(batch);
+    }
+
+    private void write(BlockingQueue<List<Document>> batches, MongoCollection<Document> tgt) throws InterruptedException {
+
+        for (List<Document> batch = batches.take(); batch != END; batch = batches.take()) {
+            List<Document> valid = runner.dedup(batch)
+                    .flatMap(runner::enrich)
+                    .flatMap(runner::checkReferences)
+                    .block();
+            if (valid == null || valid.isEmpty())
+                continue;
+
+            if (runner.throttle != null)
+                runner.throttle.write(valid, tgt.getCodecRegistry().get(Document.class)).block();
+
+            runner.inFlight.addAndGet(valid.size());
+            try {
+                tgt.insertMany(valid, runner.options);
+                runner.loaded.addAndGet(valid.size());
+            } catch (MongoBulkWriteException e) {
+                runner.loaded.addAndGet(valid.size() - e.getWriteErrors().size());
+                throw e;
+            } finally {
+                runner.inFlight.addAndGet(-valid.size());
+            }
+        }
+    }
+
+    private static void end(BlockingQueue<List<Document>> queue, int consumers) throws InterruptedException {
+        for (int i = 0; i < consumers; i++)
+            queue.put(END);
+    }
+
+    private static MongoCollection<Document> collection(MongoClient client, MongoNamespace ns) {
+        return client.getDatabase(ns.getDatabaseName()).getCollection(ns.getCollectionName(), Document.class);
+    }
+
+    /**
+     * Virtual thread factory, looked up reflectively since the build targets Java 8, or null if the JDK
+     * has no virtual threads.
+     */
+    private static ThreadFactory virtualThreads() {
+        try {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, "etl-engine-", 0L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    private static ThreadFactory platformThreads() {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, "etl-engine-" + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+}
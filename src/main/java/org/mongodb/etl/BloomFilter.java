@@ -0,0 +1,73 @@
+package org.mongodb.etl;
+
+/**
+ * Fixed size Bloom filter over 64-bit key hashes, using double hashing to derive the probe positions.
+ *
+ * Not thread safe; callers serialise access.
+ */
+class BloomFilter {
+
+    private final long[] bits;
+    private final long size;
+    private final int hashes;
+
+    /**
+     * Sizes the filter for the expected number of keys at the given false positive probability.
+     */
+    BloomFilter(long expectedKeys, double fpp) {
+        long n = Math.max(expectedKeys, 1);
+        long m = (long) Math.ceil(-n * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        size = Math.max(m, 64);
+        hashes = Math.max(1, (int) Math.round((double) size / n * Math.log(2)));
+        bits = new long[(int) ((size + 63) >>> 6)];
+    }
+
+    /**
+     * Adds the key hash, returning true if it might have been present already.
+     */
+    boolean put(long hash) {
+        long h1 = hash;
+        long h2 = mix(hash);
+        boolean present = true;
+
+        for (int i = 0; i < hashes; i++) {
+            long bit = Long.remainderUnsigned(h1 + i * h2, size);
+            int word = (int) (bit >>> 6);
+            long mask = 1L << bit;
+            if ((bits[word] & mask) == 0) {
+                present = false;
+                bits[word] |= mask;
+            }
+        }
+        return present;
+    }
+
+    /**
+     * True if the key hash might have been added, without adding it.
+     */
+    boolean mightContain(long hash) {
+        long h1 = hash;
+        long h2 = mix(hash);
+
+        for (int i = 0; i < hashes; i++) {
+            long bit = Long.remainderUnsigned(h1 + i * h2, size);
+            if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0)
+                return false;
+        }
+        return true;
+    }
+
+    long memory() {
+        return bits.length * 8L;
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 31;
+        h *= 0x7fb5d329728ea185L;
+        h ^= h >>> 27;
+        h *= 0x81dadef4bc2dd44dL;
+        h ^= h >>> 33;
+        return h | 1;
+    }
+
+}
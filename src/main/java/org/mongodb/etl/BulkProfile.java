@@ -0,0 +1,89 @@
+package org.mongodb.etl;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.MongoCompressor;
+import com.mongodb.ReadPreference;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Client settings tuned for bulk ETL, enabled with -Detl.profile=bulk.
+ *
+ * System properties:
+ *   etl.compressors       - wire compressors in order of preference (default snappy,zlib)
+ *   etl.readPreference    - read preference for the source cursor, e.g. secondaryPreferred
+ *   etl.srcPoolSize       - source client pool size (default 4)
+ *   etl.tgtPoolSize       - target client pool size (default etl.concurrency + 2)
+ *   etl.socketBufferSize  - socket send/receive buffer size in bytes
+ */
+final class BulkProfile {
+
+    static final String DEFAULT_COMPRESSORS = "snappy,zlib";
+
+    private BulkProfile() {
+    }
+
+    static boolean enabled() {
+        return "bulk".equalsIgnoreCase(System.getProperty("etl.profile"));
+    }
+
+    /**
+     * Applies the bulk profile to the builder with a connection pool of the given size.
+     */
+    static MongoClientSettings.Builder apply(MongoClientSettings.Builder builder, int poolSize) {
+
+        builder.compressorList(compressors(System.getProperty("etl.compressors", DEFAULT_COMPRESSORS)));
+
+        builder.applyToConnectionPoolSettings(pool -> pool
+                .maxSize(poolSize)
+                .minSize(poolSize / 2)
+                .maxWaitTime(2, TimeUnit.MINUTES));
+
+        Integer bufferSize = Integer.getInteger("etl.socketBufferSize");
+        if (bufferSize != null) {
+            builder.applyToSocketSettings(socket -> socket
+                    .receiveBufferSize(bufferSize)
+                    .sendBufferSize(bufferSize));
+        }
+
+        return builder;
+    }
+
+    /**
+     * Read preference for the extract stage, or null to inherit the connection string's.
+     */
+    static ReadPreference readPreference() {
+        String name = System.getProperty("etl.readPreference");
+        return name == null || name.isEmpty() ? null : ReadPreference.valueOf(name);
+    }
+
+    /**
+     * Parses a comma separated compressor list. zstd needs a 4.x driver and is skipped with a warning.
+     */
+    static List<MongoCompressor> compressors(String names) {
+        List<MongoCompressor> compressors = new ArrayList<>();
+
+        for (String name : names.split(",")) {
+            switch (name.trim().toLowerCase()) {
+                case "snappy":
+                    compressors.add(MongoCompressor.createSnappyCompressor());
+                    break;
+                case "zlib":
+                    compressors.add(MongoCompressor.createZlibCompressor());
+                    break;
+                case "zstd":
+                    System.out.println("zstd compression is not supported by this driver version, skipping");
+                    break;
+                case "":
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown compressor (" + name + ")");
+            }
+        }
+
+        return compressors;
+    }
+
+}
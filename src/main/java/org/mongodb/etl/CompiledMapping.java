@@ -0,0 +1,208 @@
+package org.mongodb.etl;
+
+import org.bson.Document;
+import org.bson.types.Binary;
+
+import java.text.SimpleDateFormat;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.UnaryOperator;
+
+/**
+ * A {@link MappingSpec} resolved into flat arrays of target names and converters.
+ *
+ * Type dispatch, null handling and the onError policy are composed into one converter per field when
+ * the spec is compiled, so mapping a document is a single loop of source lookups and converter calls.
+ * Instances are immutable and thread safe. See {@link GeneratedMapping} for the same mapping composed
+ * into a single method handle.
+ */
+public class CompiledMapping implements UnaryOperator<Document> {
+
+    /**
+     * Converts one source value; a null source value is passed in as null.
+     */
+    interface Converter {
+        Object convert(Object value) throws Exception;
+    }
+
+    static final String DEFAULT_DATE_FORMAT = "yyyy-MM-dd HH:mm:ss";
+
+    private final String[] sources;
+    private final String[] targets;
+    private final Converter[] converters;
+    private final boolean[] omitNull;
+
+    CompiledMapping(List<MappingSpec.FieldSpec> fields) {
+        int n = fields.size();
+        sources = new String[n];
+        targets = new String[n];
+        converters = new Converter[n];
+        omitNull = new boolean[n];
+
+        for (int i = 0; i < n; i++) {
+            MappingSpec.FieldSpec field = fields.get(i);
+            if (field.target() == null) {
+                throw new IllegalArgumentException("mapping field " + i + " needs a source or target");
+            }
+            sources[i] = field.source;
+            targets[i] = field.target();
+            converters[i] = converter(field);
+            omitNull[i] = field.omitNull;
+        }
+    }
+
+    /**
+     * Maps the source document, throwing IllegalArgumentException if a field fails with onError: fail.
+     */
+    @Override
+    public Document apply(Document doc) {
+        Document target = new Document();
+
+        for (int i = 0; i < converters.length; i++) {
+            String source = sources[i];
+            Object result;
+            try {
+                result = converters[i].convert(source == null ? null : doc.get(source));
+            } catch (Exception e) {
+                throw new IllegalArgumentException("unable to map " + source + " to " + targets[i], e);
+            }
+
+            if (result != null || !omitNull[i])
+                target.append(targets[i], result);
+        }
+
+        return target;
+    }
+
+    private static Converter converter(MappingSpec.FieldSpec field) {
+        if ("randomUuid".equals(field.type))
+            return value -> randomUuid();
+
+        if (field.source == null) {
+            throw new IllegalArgumentException("mapping field " + field.target + " of type " + field.type + " needs a source");
+        }
+
+        Converter base = base(field);
+        Converter nullSafe = field.required
+                ? value -> {
+                    if (value == null)
+                        throw new IllegalArgumentException(field.source + " is required");
+                    return base.convert(value);
+                }
+                : value -> value == null ? null : base.convert(value);
+
+        switch (field.onError) {
+            case "fail":
+                return nullSafe;
+            case "null":
+                return value -> {
+                    try {
+                        return nullSafe.convert(value);
+                    } catch (Exception e) {
+                        return null;
+                    }
+                };
+            case "raw":
+                return value -> {
+                    try {
+                        return nullSafe.convert(value);
+                    } catch (Exception e) {
+                        return value;
+                    }
+                };
+            default:
+                throw new IllegalArgumentException("unknown onError (" + field.onError + ") for " + field.source);
+        }
+    }
+
+    private static Converter base(MappingSpec.FieldSpec field) {
+        switch (field.type) {
+            case "raw":
+                return value -> value;
+            case "string":
+                return CompiledMapping::toText;
+            case "uuid":
+                return CompiledMapping::toUuid;
+            case "date":
+                return dateConverter(field.format == null ? DEFAULT_DATE_FORMAT : field.format);
+            case "list":
+                return CompiledMapping::toList;
+            case "json":
+                return CompiledMapping::toJson;
+            default:
+                throw new IllegalArgumentException("unknown type (" + field.type + ") for " + field.source);
+        }
+    }
+
+    /**
+     * Parses with java.time on the fast path, falling back to the lenient SimpleDateFormat the runners use
+     * so that the same strings are accepted.
+     */
+    static Converter dateConverter(String format) {
+        DateTimeFormatter formatter = DateTimeFormatter.ofPattern(format.replace("yyyy", "uuuu"));
+        ThreadLocal<SimpleDateFormat> lenient = ThreadLocal.withInitial(() -> {
+            SimpleDateFormat dateFormat = new SimpleDateFormat(format);
+            dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+            return dateFormat;
+        });
+
+        return value -> {
+            String s = (String) value;
+            if (s.isEmpty())
+                return null;
+            try {
+                return Date.from(LocalDateTime.parse(s, formatter).toInstant(ZoneOffset.UTC));
+            } catch (RuntimeException e) {
+                return lenient.get().parse(s);
+            }
+        };
+    }
+
+    static Object toText(Object value) {
+        return value instanceof String ? value : value instanceof Integer ? String.valueOf(value) : null;
+    }
+
+    static Object toUuid(Object value) {
+        return Uuids.toStandardBinary((String) value);
+    }
+
+    static Object toList(Object value) {
+        String s = (String) value;
+        if (s.isEmpty())
+            return null;
+
+        String[] items = s.replace("'", "").replace("[", "").replace("]", "").split(",");
+        List<String> list = new ArrayList<>(items.length);
+        for (String item : items)
+            list.add(item.trim());
+        return list;
+    }
+
+    static Object toJson(Object value) {
+        return Document.parse((String) value);
+    }
+
+    /**
+     * Version 4 UUID from ThreadLocalRandom, avoiding the contended SecureRandom behind UUID.randomUUID.
+     */
+    static Binary randomUuid() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        byte[] bytes = new byte[16];
+        long msb = random.nextLong() & 0xffffffffffff0fffL | 0x0000000000004000L;
+        long lsb = random.nextLong() & 0x3fffffffffffffffL | 0x8000000000000000L;
+        for (int i = 7; i >= 0; i--) {
+            bytes[i] = (byte) msb;
+            bytes[i + 8] = (byte) lsb;
+            msb >>>= 8;
+            lsb >>>= 8;
+        }
+        return new Binary(Uuids.STANDARD_SUBTYPE, bytes);
+    }
+
+}
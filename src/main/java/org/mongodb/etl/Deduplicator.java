@@ -0,0 +1,420 @@
+package org.mongodb.etl;
+
+import com.mongodb.client.model.Filters;
+import org.bson.ByteBuf;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.Codec;
+import org.bson.conversions.Bson;
+import org.bson.types.Binary;
+import reactor.core.publisher.Mono;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Streaming natural key dedup of transformed documents, e.g. the same (groupid, memberid) exported twice.
+ *
+ * Every key goes through a memory bounded {@link BloomFilter}. Keys the filter has not seen are loaded
+ * and appended to a key log on disk; documents whose key hits the filter are held back in a spill file
+ * since the hit may be a false positive. Once the load is done the spilled keys are checked exactly
+ * against a sequential read of the key log. A spill larger than etl.dedup.memoryMB is first split by key
+ * hash into partitions that fit, with the key log entries that may belong to a spilled key, and the
+ * partitions are resolved one at a time:
+ *
+ *   DROP   - the first document of a key is kept, later duplicates are dropped
+ *   LATEST - the document with the latest updatedat is kept; if that is a spilled duplicate the already
+ *            loaded document is replaced in place, keeping its _id
+ *
+ * False positives and replacements go through the runner's enrich, reference check and load stages like
+ * every other batch.
+ *
+ * System properties:
+ *   etl.dedup      - DROP or LATEST; dedup is off if unset
+ *   etl.dedup.key  - comma separated target fields forming the natural key (default: the runner's)
+ *   etl.dedup.fpp  - Bloom filter false positive probability (default 0.01)
+ *   etl.dedup.dir  - directory for the key log and spill file (default java.io.tmpdir)
+ *   etl.dedup.memoryMB - spilled bytes resolved in memory at a time (default 256)
+ */
+class Deduplicator {
+
+    enum Mode {
+        DROP,
+        LATEST
+    }
+
+    private static final String UPDATED = "updatedat";
+
+    private final Mode mode;
+    private final List<String> key;
+    private final double fpp;
+    private final long memoryBytes;
+    private final Codec<Document> codec;
+    private final Path keyLogPath;
+    private final Path spillPath;
+
+    private BloomFilter filter;
+    private DataOutputStream keyLog;
+    private DataOutputStream spill;
+    private long spilled;
+    private long spillBytes;
+    private long falsePositives;
+    private long dropped;
+    private final AtomicLong replaced = new AtomicLong();
+
+    Deduplicator(Mode mode, List<String> key, double fpp, long memoryBytes, Codec<Document> codec, Path dir) throws IOException {
+        this.mode = mode;
+        this.key = key;
+        this.fpp = fpp;
+        this.memoryBytes = memoryBytes;
+        this.codec = codec;
+        this.keyLogPath = Files.createTempFile(dir, "etl-dedup-keys", ".log");
+        this.spillPath = Files.createTempFile(dir, "etl-dedup-spill", ".bson");
+    }
+
+    /**
+     * Creates the deduplicator configured by system properties, or null if dedup is not enabled.
+     */
+    static Deduplicator fromProperties(List<String> naturalKey, Codec<Document> codec) {
+        String mode = System.getProperty("etl.dedup");
+        if (mode == null || mode.isEmpty())
+            return null;
+
+        String keyProperty = System.getProperty("etl.dedup.key");
+        List<String> key = keyProperty == null ? naturalKey : Arrays.asList(keyProperty.split(","));
+        if (key.isEmpty()) {
+            throw new IllegalArgumentException("no natural key for dedup, set etl.dedup.key");
+        }
+
+        try {
+            return new Deduplicator(
+                    Mode.valueOf(mode.toUpperCase()),
+                    key,
+                    Double.parseDouble(System.getProperty("etl.dedup.fpp", "0.01")),
+                    Long.getLong("etl.dedup.memoryMB", 256) << 20,
+                    codec,
+                    Paths.get(System.getProperty("etl.dedup.dir", System.getProperty("java.io.tmpdir"))));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Prepares a filter sized for the expected document count.
+     */
+    void start(long expectedDocs) {
+        try {
+            filter = new BloomFilter(expectedDocs, fpp);
+            keyLog = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(keyLogPath), 1 << 16));
+            spill = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(spillPath), 1 << 16));
+            spilled = spillBytes = falsePositives = dropped = 0;
+            replaced.set(0);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Returns the documents of the batch whose key is new, spilling the possible duplicates.
+     */
+    synchronized List<Document> filter(List<Document> batch) {
+        List<Document> unique = new ArrayList<>(batch.size());
+
+        try {
+            for (Document doc : batch) {
+                String k = key(doc);
+                if (filter.put(Verifier.hash(k.getBytes(StandardCharsets.UTF_8)))) {
+                    ByteBuf bytes = new RawBsonDocument(doc, codec).getByteBuffer();
+                    spill.writeUTF(k);
+                    spill.writeLong(updated(doc));
+                    spill.writeInt(bytes.remaining());
+                    spill.write(bytes.array(), bytes.position(), bytes.remaining());
+                    spilled++;
+                    spillBytes += bytes.remaining() + k.length();
+                } else {
+                    keyLog.writeUTF(k);
+                    keyLog.writeLong(updated(doc));
+                    unique.add(doc);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return unique;
+    }
+
+    /**
+     * Resolves the spilled documents exactly: loads the false positives through the loader and, in
+     * LATEST mode, replaces loaded documents superseded by a later duplicate through the replacer.
+     */
+    void finish(Function<List<Document>, Mono<?>> loader, Replacer replacer, int batchSize) {
+        List<Path> parts = new ArrayList<>();
+        try {
+            keyLog.close();
+            spill.close();
+
+            int partitions = (int) Math.max(1, (spillBytes + memoryBytes - 1) / memoryBytes);
+            if (partitions == 1) {
+                resolve(spillPath, keyLogPath, loader, replacer, batchSize);
+            } else {
+                List<Path> spillParts = createParts(partitions, "etl-dedup-spill", parts);
+                List<Path> keyParts = createParts(partitions, "etl-dedup-keys", parts);
+                partitionKeyLog(keyParts, partitionSpill(spillParts));
+                for (int i = 0; i < partitions; i++)
+                    resolve(spillParts.get(i), keyParts.get(i), loader, replacer, batchSize);
+            }
+
+            System.out.println("dedup on " + key + ": " + spilled + " filter hits, " + falsePositives +
+                    " false positives loaded, " + dropped + " duplicates dropped, " + replaced.get() + " replaced by a later updatedat" +
+                    " (filter " + (filter.memory() >> 10) + "KB" + (partitions > 1 ? ", " + partitions + " spill partitions" : "") + ")");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            parts.add(keyLogPath);
+            parts.add(spillPath);
+            for (Path part : parts) {
+                try {
+                    Files.deleteIfExists(part);
+                } catch (IOException e) {
+                    System.out.println("unable to delete dedup file " + part + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Resolves the spilled documents of one partition against the key log entries of the same partition.
+     */
+    private void resolve(Path spillFile, Path keyFile, Function<List<Document>, Mono<?>> loader,
+                         Replacer replacer, int batchSize) throws IOException {
+
+        // latest (or first) spilled document per key, in spill order, still encoded
+        Map<String, Suspect> suspects = new LinkedHashMap<>();
+        try (DataInputStream in = open(spillFile)) {
+            Suspect suspect;
+            while ((suspect = Suspect.read(in)) != null) {
+                Suspect previous = suspects.get(suspect.key);
+                if (previous == null || (mode == Mode.LATEST && suspect.updated > previous.updated)) {
+                    suspects.put(suspect.key, suspect);
+                }
+                if (previous != null)
+                    dropped++;
+            }
+        }
+
+        // updatedat of the loaded document, for the suspect keys that really were duplicates
+        Map<String, Long> loadedUpdated = new HashMap<>();
+        try (DataInputStream in = open(keyFile)) {
+            while (true) {
+                String k;
+                try {
+                    k = in.readUTF();
+                } catch (EOFException e) {
+                    break;
+                }
+                long updated = in.readLong();
+                if (suspects.containsKey(k))
+                    loadedUpdated.put(k, updated);
+            }
+        }
+
+        List<Document> inserts = new ArrayList<>();
+        List<Document> replacements = new ArrayList<>();
+
+        for (Suspect suspect : suspects.values()) {
+            Long updated = loadedUpdated.get(suspect.key);
+
+            if (updated == null) {
+                inserts.add(new RawBsonDocument(suspect.bytes).decode(codec));
+                falsePositives++;
+                if (inserts.size() == batchSize) {
+                    Mono.from(loader.apply(inserts)).block();
+                    inserts = new ArrayList<>();
+                }
+            } else {
+                dropped++;
+                if (mode == Mode.LATEST && suspect.updated > updated) {
+                    Document replacement = new RawBsonDocument(suspect.bytes).decode(codec);
+                    // the loaded document keeps its _id, unless the _id is the key itself
+                    if (!key.contains("_id"))
+                        replacement.remove("_id");
+                    replacements.add(replacement);
+                    if (replacements.size() == batchSize) {
+                        Mono.from(replacer.replace(replacements, this::replaceFilter, replaced)).block();
+                        replacements = new ArrayList<>();
+                    }
+                }
+            }
+        }
+
+        if (!inserts.isEmpty())
+            Mono.from(loader.apply(inserts)).block();
+        if (!replacements.isEmpty())
+            Mono.from(replacer.replace(replacements, this::replaceFilter, replaced)).block();
+    }
+
+    /**
+     * The loaded document of the replacement's key, if it is older than the replacement.
+     */
+    private Bson replaceFilter(Document replacement) {
+        return Filters.and(keyFilter(replacement), Filters.lt(UPDATED, replacement.get(UPDATED)));
+    }
+
+    /**
+     * Splits the spill file by key hash, returning a filter of the spilled keys.
+     */
+    private BloomFilter partitionSpill(List<Path> parts) throws IOException {
+        BloomFilter spilledKeys = new BloomFilter(spilled, fpp);
+        List<DataOutputStream> outs = create(parts);
+        try (DataInputStream in = open(spillPath)) {
+            Suspect suspect;
+            while ((suspect = Suspect.read(in)) != null) {
+                long hash = Verifier.hash(suspect.key.getBytes(StandardCharsets.UTF_8));
+                spilledKeys.put(hash);
+                suspect.write(outs.get(partition(hash, parts.size())));
+            }
+        } finally {
+            for (DataOutputStream out : outs)
+                out.close();
+        }
+        return spilledKeys;
+    }
+
+    /**
+     * Splits the key log by key hash, keeping only the keys that may have been spilled.
+     */
+    private void partitionKeyLog(List<Path> parts, BloomFilter spilledKeys) throws IOException {
+        List<DataOutputStream> outs = create(parts);
+        try (DataInputStream in = open(keyLogPath)) {
+            while (true) {
+                String k;
+                try {
+                    k = in.readUTF();
+                } catch (EOFException e) {
+                    break;
+                }
+                long updated = in.readLong();
+                long hash = Verifier.hash(k.getBytes(StandardCharsets.UTF_8));
+                if (spilledKeys.mightContain(hash)) {
+                    DataOutputStream out = outs.get(partition(hash, parts.size()));
+                    out.writeUTF(k);
+                    out.writeLong(updated);
+                }
+            }
+        } finally {
+            for (DataOutputStream out : outs)
+                out.close();
+        }
+    }
+
+    private List<Path> createParts(int partitions, String prefix, List<Path> created) throws IOException {
+        Path dir = spillPath.getParent();
+        List<Path> parts = new ArrayList<>(partitions);
+        for (int i = 0; i < partitions; i++) {
+            Path part = Files.createTempFile(dir, prefix + "-" + i + "-", ".part");
+            created.add(part);
+            parts.add(part);
+        }
+        return parts;
+    }
+
+    private static List<DataOutputStream> create(List<Path> parts) throws IOException {
+        List<DataOutputStream> outs = new ArrayList<>(parts.size());
+        for (Path part : parts)
+            outs.add(new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(part), 1 << 16)));
+        return outs;
+    }
+
+    private static DataInputStream open(Path path) throws IOException {
+        return new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16));
+    }
+
+    private static int partition(long hash, int partitions) {
+        return (int) Long.remainderUnsigned(hash, partitions);
+    }
+
+    private Bson keyFilter(Document doc) {
+        List<Bson> filters = new ArrayList<>();
+        for (String field : key)
+            filters.add(Filters.eq(field, doc.get(field)));
+        return Filters.and(filters);
+    }
+
+    Mode mode() {
+        return mode;
+    }
+
+    List<String> key() {
+        return key;
+    }
+
+    /**
+     * The natural key of a document as a string, equal for the documents the dedup treats as duplicates.
+     */
+    String key(Document doc) {
+        StringBuilder sb = new StringBuilder();
+        for (String field : key) {
+            Object value = doc.get(field);
+            if (value instanceof Binary)
+                value = Uuids.isStandard((Binary) value) ? Uuids.fromStandardBinary((Binary) value) : Arrays.toString(((Binary) value).getData());
+            sb.append(value).append('\u0000');
+        }
+        return sb.toString();
+    }
+
+    static long updated(Document doc) {
+        Object value = doc.get(UPDATED);
+        return value instanceof Date ? ((Date) value).getTime() : Long.MIN_VALUE;
+    }
+
+    /**
+     * Writes replacements of loaded documents, each the one matching its filter, counting them in replaced.
+     */
+    interface Replacer {
+        Mono<?> replace(List<Document> batch, Function<Document, Bson> filter, AtomicLong replaced);
+    }
+
+    /**
+     * A spill record: the key, the document's updatedat and its encoded bytes.
+     */
+    private static final class Suspect {
+
+        final String key;
+        final long updated;
+        final byte[] bytes;
+
+        Suspect(String key, long updated, byte[] bytes) {
+            this.key = key;
+            this.updated = updated;
+            this.bytes = bytes;
+        }
+
+        static Suspect read(DataInputStream in) throws IOException {
+            String key;
+            try {
+                key = in.readUTF();
+            } catch (EOFException e) {
+                return null;
+            }
+            long updated = in.readLong();
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            return new Suspect(key, updated, bytes);
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeUTF(key);
+            out.writeLong(updated);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+}
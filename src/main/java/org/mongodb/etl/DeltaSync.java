@@ -0,0 +1,215 @@
+package org.mongodb.etl;
+
+import com.mongodb.MongoException;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+import com.mongodb.reactivestreams.client.MongoClient;
+import com.mongodb.reactivestreams.client.MongoCollection;
+import com.mongodb.reactivestreams.client.Success;
+import org.bson.BsonType;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.Binary;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.*;
+
+/**
+ * Incremental migration of the source rows changed since the previous run, instead of a drop and reload.
+ *
+ * The run reads the stored watermark and the latest change time in the source, and extracts the rows
+ * from the watermark up to that time with a range query on the change field, which should be indexed
+ * in the source. The window includes the watermark itself: the change time has a one second resolution,
+ * so rows changed in that second after the previous run read it are picked up by the next one. The
+ * transformed documents are upserted on the natural key: the _ids of documents already in the target
+ * are looked up first so the replacement keeps them, and new documents keep the _id the transform gave
+ * them. A unique index on the natural key is created in the target first, which also guards the key
+ * against concurrent upserts creating it twice. The watermark is advanced only once every batch of the
+ * window has been acknowledged, so a failed or stopped run leaves it in place and the next run replays
+ * the same window; replaying is harmless since the upserts are idempotent. Failed upserts are retried
+ * and rejected by the {@link BatchLoader} like inserts, so a permanently failing row does not hold the
+ * watermark back; it is left in the reject collection.
+ *
+ * Rows deleted from the source are not detected. The change field of these exports is a
+ * "yyyy-MM-dd HH:mm:ss" string, which orders the same as the time it stands for; the latest change is
+ * taken from the values of that shape only, rows with malformed change times are not migrated.
+ *
+ * System properties:
+ *   etl.delta       - "true" to migrate only the rows changed since the watermark
+ *   etl.delta.field - source field holding the change time (default: the runner's)
+ *   etl.delta.key   - comma separated target fields to upsert on (default: the runner's natural key)
+ *   etl.delta.ns    - watermark collection (default: the target namespace + "_watermarks")
+ */
+class DeltaSync {
+
+    private static final int LOOKUP_BATCH = 1000;
+    private static final String CHANGE_TIME = "^\\d{4}-\\d{2}-\\d{2} \\d{2}:\\d{2}:\\d{2}$";
+
+    private final MongoCollection<Document> watermarks;
+    private final String target;
+    private final String field;
+    private final List<String> key;
+
+    private Object lower;
+    private Object upper;
+
+    DeltaSync(MongoCollection<Document> watermarks, String target, String field, List<String> key) {
+        this.watermarks = watermarks;
+        this.target = target;
+        this.field = field;
+        this.key = key;
+    }
+
+    /**
+     * Creates the delta sync configured by system properties, or null if delta mode is not enabled.
+     */
+    static DeltaSync fromProperties(MongoClient client, String tgtNs, String updatedField, List<String> naturalKey) {
+        if (!Boolean.getBoolean("etl.delta"))
+            return null;
+
+        String keyProperty = System.getProperty("etl.delta.key");
+        List<String> key = keyProperty == null || keyProperty.isEmpty() ? naturalKey : Arrays.asList(keyProperty.split(","));
+        if (key.isEmpty()) {
+            throw new IllegalArgumentException("etl.delta needs a natural key to upsert on, set etl.delta.key");
+        }
+
+        String ns = System.getProperty("etl.delta.ns", tgtNs + "_watermarks");
+        String[] split = ns.split("\\.");
+        if (split.length != 2) {
+            throw new IllegalArgumentException("watermark namespace is not valid (" + ns + ")");
+        }
+
+        return new DeltaSync(
+                client.getDatabase(split[0]).getCollection(split[1]),
+                tgtNs,
+                System.getProperty("etl.delta.field", updatedField),
+                key);
+    }
+
+    /**
+     * Reads the stored watermark and the latest change in the source, returning the query for the rows
+     * from the watermark to the latest change, or null if the source has no change times.
+     */
+    Bson window(MongoCollection<Document> src) {
+        Document stored = Mono.from(watermarks.find(Filters.eq("_id", target)).first()).block();
+        lower = stored == null ? null : stored.get("watermark");
+
+        // only well formed change times: a malformed string or another type sorting last would otherwise
+        // become the watermark and hide every later change
+        Document latest = Mono.from(src.find(Filters.and(Filters.type(field, BsonType.STRING), Filters.regex(field, CHANGE_TIME)))
+                .sort(Sorts.descending(field))
+                .projection(Projections.include(field))
+                .first())
+                .block();
+        upper = latest == null ? null : latest.get(field);
+
+        System.out.println("delta window on " + field + ": [" + (lower == null ? "" : lower) + ", " +
+                (upper == null ? "" : upper) + "]");
+
+        if (upper == null)
+            return null;
+
+        // the rows of the watermark's second are replayed, the upserts make that harmless
+        return lower == null
+                ? Filters.lte(field, upper)
+                : Filters.and(Filters.gte(field, lower), Filters.lte(field, upper));
+    }
+
+    /**
+     * Creates the unique index on the natural key that the _id lookups and the upserts filter on, so
+     * they are index lookups rather than collection scans. Fails the run if the target already holds
+     * duplicates of a key, or an index on the key that is not unique.
+     */
+    void ensureKeyIndex(MongoCollection<Document> tgt) {
+        if (key.equals(Collections.singletonList("_id")))
+            return;
+
+        try {
+            Mono.from(tgt.createIndex(Indexes.ascending(key), new IndexOptions().unique(true))).block();
+        } catch (MongoException e) {
+            throw new IllegalStateException("unable to create a unique index on the natural key " + key + " of " +
+                    target + ", dedup the target first (" + e.getMessage() + ")", e);
+        }
+    }
+
+    /**
+     * Upserts the batch on the natural key through the loader, which retries transient failures, rejects
+     * permanent ones and counts the documents once they are acknowledged.
+     */
+    Mono<Success> upsert(MongoCollection<Document> tgt, List<Document> batch, BatchLoader loader) {
+        return Flux.fromIterable(batch)
+                .buffer(LOOKUP_BATCH)
+                .concatMap(docs -> existingIds(tgt, docs)
+                        .flatMap(ids -> loader.upsert(tgt, keepIds(docs, ids), this::keyFilter)))
+                .then(Mono.empty());
+    }
+
+    /**
+     * Stores the upper end of the window as the new watermark. Called after every batch was acknowledged.
+     */
+    void commit(long loaded) {
+        if (upper == null)
+            return;
+
+        Mono.from(watermarks.updateOne(Filters.eq("_id", target),
+                Updates.combine(
+                        Updates.set("field", field),
+                        Updates.set("watermark", upper),
+                        Updates.set("loaded", loaded),
+                        Updates.set("syncedAt", new Date())),
+                new UpdateOptions().upsert(true)))
+                .block();
+
+        System.out.println("delta watermark advanced to " + upper + " after " + loaded + " upserts");
+    }
+
+    /**
+     * _id of the target document of each natural key in the batch that is already loaded.
+     */
+    private Mono<Map<String, Object>> existingIds(MongoCollection<Document> tgt, List<Document> docs) {
+        List<Bson> keys = new ArrayList<>(docs.size());
+        for (Document doc : docs)
+            keys.add(keyFilter(doc));
+
+        List<String> projection = new ArrayList<>(key);
+        projection.add("_id");
+
+        return Flux.from(tgt.find(Filters.or(keys)).projection(Projections.include(projection)))
+                .collectMap(this::naturalKey, doc -> doc.get("_id"));
+    }
+
+    private List<Document> keepIds(List<Document> docs, Map<String, Object> ids) {
+        for (Document doc : docs) {
+            Object id = ids.get(naturalKey(doc));
+            if (id != null)
+                doc.put("_id", id);
+        }
+        return docs;
+    }
+
+    private Bson keyFilter(Document doc) {
+        List<Bson> filters = new ArrayList<>();
+        for (String field : key)
+            filters.add(Filters.eq(field, doc.get(field)));
+        return Filters.and(filters);
+    }
+
+    private String naturalKey(Document doc) {
+        StringBuilder sb = new StringBuilder();
+        for (String field : key) {
+            // loaded UUIDs are decoded as java.util.UUID, transformed ones are still binaries
+            Object value = doc.get(field);
+            if (value instanceof Binary)
+                value = Uuids.isStandard((Binary) value) ? Uuids.fromStandardBinary((Binary) value) : Arrays.toString(((Binary) value).getData());
+            sb.append(value).append('\u0000');
+        }
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,192 @@
+package org.mongodb.etl;
+
+import com.mongodb.reactivestreams.client.MongoCollection;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.Codec;
+import org.bson.conversions.Bson;
+import org.bson.types.Binary;
+import org.bson.types.ObjectId;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Runs the stages of a migration partially, so the stage limiting it can be found on the same hardware.
+ *
+ * "extract" drains the source cursor, decoding every document and nothing else. "transform" also
+ * transforms the documents, and discards them. "generate" skips the source: a few source documents are
+ * transformed into templates, and copies of them with fresh _ids are batched and loaded into the target
+ * (dropped first) with the configured load mode. Dedup, enrichment and reference checks are left out of
+ * every mode. Each mode reports docs/s and MB/s, the bytes being the BSON size of one document in 64,
+ * and the {@link AllocationProfiler} figures if it is enabled. The transforms run behind the throttle
+ * and are sampled by the profiler as in a full run; "transform" mode also batches the transformed
+ * documents, discarding the batches, so the profiler's per batch figures are filled.
+ *
+ * System properties:
+ *   etl.dryRun           - "extract", "transform" or "generate" to run only those stages
+ *   etl.dryRun.docs      - documents to generate (default: the source count)
+ *   etl.dryRun.templates - source documents transformed into the templates of the generated ones (default 1000)
+ */
+class DryRun {
+
+    enum Mode { EXTRACT, TRANSFORM, GENERATE }
+
+    private static final int SAMPLE = 64;
+    private static final double MB = 1024 * 1024;
+
+    private final Runner runner;
+    private final Mode mode;
+    private final long docs;
+    private final int templates;
+
+    DryRun(Runner runner, Mode mode, long docs, int templates) {
+        this.runner = runner;
+        this.mode = mode;
+        this.docs = docs;
+        this.templates = templates;
+    }
+
+    /**
+     * Creates the dry run configured by system properties, or null for a full run.
+     */
+    static DryRun fromProperties(Runner runner) {
+        String mode = System.getProperty("etl.dryRun");
+        if (mode == null || mode.isEmpty())
+            return null;
+
+        return new DryRun(runner, Mode.valueOf(mode.toUpperCase()),
+                Long.getLong("etl.dryRun.docs", 0),
+                Integer.getInteger("etl.dryRun.templates", 1000));
+    }
+
+    void run() {
+        Bson query = runner.filter == null ? new Document() : runner.filter;
+        Codec<Document> codec = runner.tgt.getCodecRegistry().get(Document.class);
+
+        if (runner.profiler != null) {
+            runner.profiler.start();
+        }
+
+        try {
+            switch (mode) {
+                case EXTRACT: {
+                    Meter source = new Meter(codec);
+                    long start = System.currentTimeMillis();
+                    runner.extract(query)
+                            .takeUntilOther(runner.shutdown.signal())
+                            .doOnNext(source::add)
+                            .blockLast();
+                    report(start, source, "source");
+                    break;
+                }
+                case TRANSFORM: {
+                    Meter source = new Meter(codec);
+                    Meter target = new Meter(codec);
+                    long start = System.currentTimeMillis();
+                    runner.extract(query)
+                            .takeUntilOther(runner.shutdown.signal())
+                            .doOnNext(source::add)
+                            .flatMap(runner::throttledTransform, runner.concurrency)
+                            .doOnNext(target::add)
+                            .buffer(runner.batchSize)
+                            .doOnNext(runner::batched)
+                            .blockLast();
+                    report(start, source, "source");
+                    report(start, target, "transformed");
+                    break;
+                }
+                case GENERATE:
+                    generate(query, codec);
+                    break;
+            }
+        } finally {
+            if (runner.profiler != null) {
+                runner.profiler.stop();
+            }
+        }
+    }
+
+    private void generate(Bson query, Codec<Document> codec) {
+        List<Document> transformed = runner.extract(query)
+                .take(templates)
+                .flatMap(runner::throttledTransform)
+                .collectList()
+                .block();
+        if (transformed == null || transformed.isEmpty()) {
+            throw new IllegalStateException("no source documents to generate from");
+        }
+
+        long count = docs > 0 ? docs : Mono.from(runner.src.estimatedDocumentCount()).block();
+
+        System.out.println("dropping tgt collection");
+        Mono.from(runner.tgt.drop()).block();
+        runner.batchLoader.reset();
+        runner.loaded.set(0);
+
+        MongoCollection<Document> bulkTgt = runner.loadMode.bulkTarget(runner.tgt);
+        Meter target = new Meter(codec);
+        long start = System.currentTimeMillis();
+
+        Flux.range(0, (int) Math.min(count, Integer.MAX_VALUE))
+                .takeUntilOther(runner.shutdown.signal())
+                .map(i -> copy(transformed.get(i % transformed.size())))
+                .doOnNext(target::add)
+                .buffer(runner.batchSize)
+                .flatMap(batch -> runner.load(bulkTgt, batch), runner.concurrency)
+                .blockLast();
+
+        report(start, target, "generated");
+        runner.batchLoader.printSummary();
+        if (runner.shutdown.stopping())
+            return;
+
+        runner.loadMode.awaitDurable(runner.tgt, runner.loaded.get());
+        System.out.println("durable after " + Math.round((System.currentTimeMillis() - start) / 1000.0) + "s");
+    }
+
+    /**
+     * Shallow copy of a template with a new _id of the same kind.
+     */
+    private static Document copy(Document template) {
+        Document doc = new Document(template);
+        Object id = template.get("_id");
+        if (id instanceof UUID)
+            doc.put("_id", UUID.randomUUID());
+        else if (id instanceof Binary && Uuids.isStandard((Binary) id))
+            doc.put("_id", Uuids.toStandardBinary(UUID.randomUUID()));
+        else
+            doc.put("_id", new ObjectId());
+        return doc;
+    }
+
+    private void report(long start, Meter meter, String what) {
+        double seconds = Math.max(1, System.currentTimeMillis() - start) / 1000.0;
+        System.out.println(String.format("dry run %s: %d %s documents in %.1fs, %d doc/s, %.1f MB/s",
+                mode.name().toLowerCase(), meter.docs, what, seconds,
+                Math.round(meter.docs / seconds), meter.bytes / MB / seconds));
+    }
+
+    /**
+     * Document count and BSON bytes extrapolated from every 64th document. Signals are serialized, so
+     * the counters are not shared between threads.
+     */
+    private static final class Meter {
+
+        private final Codec<Document> codec;
+        private long docs;
+        private long bytes;
+
+        Meter(Codec<Document> codec) {
+            this.codec = codec;
+        }
+
+        void add(Document doc) {
+            if (docs++ % SAMPLE == 0)
+                bytes += (long) new RawBsonDocument(doc, codec).getByteBuffer().remaining() * SAMPLE;
+        }
+    }
+
+}
@@ -0,0 +1,176 @@
+package org.mongodb.etl;
+
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.reactivestreams.client.MongoClient;
+import com.mongodb.reactivestreams.client.MongoCollection;
+import org.bson.Document;
+import org.bson.types.Binary;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Denormalises fields of a reference collection into the transformed documents, replacing a second
+ * $lookup pass over the target. For example members can carry their group's name, contexttype and
+ * system from the RunnerGroup output.
+ *
+ * The reference collection is preloaded into a {@link UuidCache} keyed by its _id. Keys missing from
+ * the cache (not preloaded, or evicted) are fetched with one $in query per batch.
+ *
+ * System properties:
+ *   etl.enrich.ns        - reference namespace, e.g. groupmanager.groups; enrichment is off if unset
+ *   etl.enrich.key       - field of the transformed document referencing the reference _id (default groupid)
+ *   etl.enrich.fields    - reference fields to copy (default name,contexttype,system)
+ *   etl.enrich.as        - sub-document the copied fields are written to (default group)
+ *   etl.enrich.cacheSize - cache capacity in entries (default 1000000)
+ */
+class Enricher {
+
+    private static final Object[] MISSING = new Object[0];
+
+    private final MongoCollection<Document> reference;
+    private final String key;
+    private final List<String> fields;
+    private final String as;
+    private final UuidCache<Object[]> cache;
+
+    Enricher(MongoCollection<Document> reference, String key, List<String> fields, String as, int cacheSize) {
+        this.reference = reference;
+        this.key = key;
+        this.fields = fields;
+        this.as = as;
+        this.cache = new UuidCache<>(cacheSize);
+    }
+
+    /**
+     * Creates the enricher configured by system properties, or null if enrichment is not enabled.
+     */
+    static Enricher fromProperties(MongoClient client) {
+        String ns = System.getProperty("etl.enrich.ns");
+        if (ns == null || ns.isEmpty())
+            return null;
+
+        String[] split = ns.split("\\.");
+        if (split.length != 2) {
+            throw new IllegalArgumentException("enrich namespace is not valid (" + ns + ")");
+        }
+
+        return new Enricher(
+                client.getDatabase(split[0]).getCollection(split[1], Document.class),
+                System.getProperty("etl.enrich.key", "groupid"),
+                Arrays.asList(System.getProperty("etl.enrich.fields", "name,contexttype,system").split(",")),
+                System.getProperty("etl.enrich.as", "group"),
+                Integer.getInteger("etl.enrich.cacheSize", 1000000));
+    }
+
+    /**
+     * Name of the sub-document written to the enriched documents.
+     */
+    String as() {
+        return as;
+    }
+
+    /**
+     * Loads the reference collection into the cache, up to its capacity.
+     */
+    void preload() {
+        long start = System.currentTimeMillis();
+
+        Long count = Flux.from(reference.find().projection(Projections.include(fields)).batchSize(20000))
+                .take(cache.capacity())
+                .doOnNext(ref -> cache.put((UUID) ref.get("_id"), values(ref)))
+                .count()
+                .block();
+
+        System.out.println("preloaded " + count + " reference documents in " +
+                (System.currentTimeMillis() - start) + "ms");
+    }
+
+    /**
+     * Adds the reference fields to every document of the batch, fetching cache misses with a single $in.
+     */
+    Mono<List<Document>> enrich(List<Document> batch) {
+        Map<UUID, Object[]> resolved = new HashMap<>();
+
+        for (Document doc : batch) {
+            UUID id = key(doc);
+            if (id != null && !resolved.containsKey(id)) {
+                resolved.put(id, cache.get(id));
+            }
+        }
+
+        List<UUID> misses = new ArrayList<>();
+        resolved.forEach((id, values) -> {
+            if (values == null)
+                misses.add(id);
+        });
+
+        if (misses.isEmpty())
+            return Mono.just(apply(batch, resolved));
+
+        return Flux.from(reference.find(Filters.in("_id", misses)).projection(Projections.include(fields)))
+                .doOnNext(ref -> {
+                    Object[] values = values(ref);
+                    cache.put((UUID) ref.get("_id"), values);
+                    resolved.put((UUID) ref.get("_id"), values);
+                })
+                .then(Mono.fromCallable(() -> {
+                    for (UUID id : misses) {
+                        if (resolved.get(id) == null) {
+                            // remember orphans so they are not looked up again
+                            cache.put(id, MISSING);
+                            resolved.put(id, MISSING);
+                        }
+                    }
+                    return apply(batch, resolved);
+                }));
+    }
+
+    private List<Document> apply(List<Document> batch, Map<UUID, Object[]> resolved) {
+        for (Document doc : batch) {
+            UUID id = key(doc);
+            Object[] values = id == null ? null : resolved.get(id);
+            if (values == null || values == MISSING)
+                continue;
+
+            Document sub = new Document();
+            for (int i = 0; i < values.length; i++) {
+                if (values[i] != null)
+                    sub.append(fields.get(i), values[i]);
+            }
+            doc.append(as, sub);
+        }
+        return batch;
+    }
+
+    private Object[] values(Document ref) {
+        Object[] values = new Object[fields.size()];
+        for (int i = 0; i < values.length; i++)
+            values[i] = ref.get(fields.get(i));
+        return values;
+    }
+
+    private UUID key(Document doc) {
+        Object value = doc.get(key);
+        if (value instanceof UUID)
+            return (UUID) value;
+        if (value instanceof Binary && Uuids.isStandard((Binary) value))
+            return Uuids.fromStandardBinary((Binary) value);
+        if (value instanceof String) {
+            try {
+                return UUID.fromString((String) value);
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+}
@@ -0,0 +1,216 @@
+package org.mongodb.etl;
+
+import com.mongodb.client.model.Projections;
+import com.mongodb.reactivestreams.client.MongoCollection;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Loads several target collections from a single scan of their common source, e.g. the user to org and
+ * org to user associations, which both map the association table.
+ *
+ * Every target is a runner of its own, with its transform, batching, dedup, enrichment, load mode and
+ * summaries. The source is read once with the union of the runners' projections and multicast to them.
+ * Each runner consumes on its own thread through a queue of etl.fanout.buffer documents, so a target
+ * that is momentarily slower (a larger batch being acknowledged, a throttle) does not hold the others
+ * back until its queue is full; over the whole scan the source is read at the pace of the slowest.
+ * Transforms must not modify the source documents, which are shared.
+ *
+ * Args: mongoUri, source namespace, then pairs of runner class and target namespace, e.g.
+ *   RunnerUserOrgAssociation groupmanager.userorgassociation RunnerOrgUserAssociation groupmanager.orguserassociation
+ *
+ * System properties:
+ *   etl.fanout.buffer - source documents queued per target (default: the batch size)
+ *   etl.filter, etl.verify and the runner settings apply to every target; etl.queue, etl.delta and the
+ *   blocking engine are not supported
+ */
+public class FanOut {
+
+    private final List<Runner> runners;
+    private final int buffer;
+    private final GracefulShutdown shutdown;
+
+    public static void main(String[] args) throws ReflectiveOperationException {
+        if (args.length < 4 || args.length % 2 != 0) {
+            throw new IllegalArgumentException("expected arguments: mongoUri <src namespace> (<runner class> <tgt namespace>)...");
+        }
+
+        List<Runner> runners = new ArrayList<>();
+        for (int i = 2; i < args.length; i += 2) {
+            String name = args[i].contains(".") ? args[i] : FanOut.class.getPackage().getName() + "." + args[i];
+            runners.add((Runner) Class.forName(name)
+                    .getConstructor(String.class, String.class, String.class)
+                    .newInstance(args[0], args[1], args[i + 1]));
+        }
+
+        new FanOut(runners).run();
+    }
+
+    public FanOut(List<Runner> runners) {
+        if (Boolean.getBoolean("etl.delta")) {
+            throw new IllegalArgumentException("etl.delta cannot be combined with a fan out");
+        }
+
+        Runner first = runners.get(0);
+        for (Runner runner : runners) {
+            if (runner.workQueue != null) {
+                throw new IllegalArgumentException("etl.queue cannot be combined with a fan out");
+            }
+            if (!runner.src.getNamespace().equals(first.src.getNamespace())) {
+                throw new IllegalArgumentException("fan out runners must read the same source (" +
+                        runner.src.getNamespace() + ", " + first.src.getNamespace() + ")");
+            }
+            if (!"reactive".equals(runner.engine)) {
+                throw new IllegalArgumentException("a fan out loads with the reactive engine only");
+            }
+        }
+
+        this.runners = runners;
+        this.buffer = Integer.getInteger("etl.fanout.buffer", first.batchSize);
+
+        // one stop signal and one profile for the shared scan
+        this.shutdown = GracefulShutdown.fromProperties(
+                () -> runners.stream().mapToLong(runner -> runner.loaded.get()).sum(),
+                () -> runners.stream().mapToLong(runner -> runner.inFlight.get()).sum(),
+                () -> { });
+        for (Runner runner : runners) {
+            runner.shutdown = shutdown;
+            runner.profiler = first.profiler;
+        }
+    }
+
+    public void run() {
+        shutdown.install();
+        try {
+            load();
+        } finally {
+            shutdown.finished();
+        }
+    }
+
+    private void load() {
+        Runner first = runners.get(0);
+        Bson query = first.filter == null ? new Document() : first.filter;
+
+        long docCount = first.filter == null
+                ? Mono.from(first.src.estimatedDocumentCount()).block()
+                : Mono.from(first.src.countDocuments(query)).block();
+
+        List<MongoCollection<Document>> targets = new ArrayList<>();
+        for (Runner runner : runners)
+            targets.add(prepare(runner, docCount));
+
+        Set<String> fields = new LinkedHashSet<>();
+        for (Runner runner : runners)
+            fields.addAll(runner.fields());
+        Bson projection = Projections.fields(Projections.include(new ArrayList<>(fields)), Projections.excludeId());
+
+        if (first.profiler != null) {
+            first.profiler.start();
+        }
+
+        long start = System.currentTimeMillis();
+
+        Flux<Document> source = first.extract(query, projection)
+                .takeUntilOther(shutdown.signal())
+                .publish(buffer)
+                .autoConnect(runners.size());
+
+        List<Scheduler> schedulers = new ArrayList<>();
+        List<Flux<?>> loads = new ArrayList<>();
+        for (int i = 0; i < runners.size(); i++) {
+            Runner runner = runners.get(i);
+            Scheduler scheduler = Schedulers.newSingle("etl-fanout-" + runner.tgt.getNamespace().getCollectionName());
+            schedulers.add(scheduler);
+
+            loads.add(runner.pipeline(source.publishOn(scheduler, buffer), targets.get(i))
+                    .doOnComplete(() -> System.out.println(runner.tgt.getNamespace() + " loaded " + runner.loaded.get() +
+                            " documents in " + Math.round((System.currentTimeMillis() - start) / 1000.0) + "s")));
+        }
+
+        try {
+            Flux.merge(loads).blockLast();
+        } finally {
+            schedulers.forEach(Scheduler::dispose);
+            if (first.profiler != null) {
+                first.profiler.stop();
+            }
+        }
+
+        double time = (System.currentTimeMillis() - start) / 1000;
+        System.out.println("fanned out " + docCount + " documents to " + runners.size() + " targets in " +
+                Math.round(time) + "s (" + Math.round(docCount / time) + " doc/s)");
+
+        for (int i = 0; i < runners.size(); i++)
+            finish(runners.get(i), targets.get(i));
+    }
+
+    /**
+     * The coordinator's preparation of a single runner's target, returning the collection to load into.
+     */
+    private static MongoCollection<Document> prepare(Runner runner, long docCount) {
+        System.out.println("dropping tgt collection " + runner.tgt.getNamespace());
+        Mono.from(runner.tgt.drop()).block();
+
+        runner.batchLoader.reset();
+        runner.loaded.set(0);
+        runner.badDocuments.reset();
+
+        if (runner.enricher != null) {
+            runner.enricher.preload();
+        }
+        if (runner.referenceCheck != null) {
+            runner.referenceCheck.resetReport();
+            runner.referenceCheck.load();
+        }
+
+        runner.deduplicator = Deduplicator.fromProperties(runner.naturalKey(), runner.tgt.getCodecRegistry().get(Document.class));
+        if (runner.deduplicator != null) {
+            runner.deduplicator.start(docCount);
+        }
+
+        if (runner.throttle != null) {
+            runner.throttle.start();
+        }
+
+        return runner.loadMode.bulkTarget(runner.tgt);
+    }
+
+    private void finish(Runner runner, MongoCollection<Document> bulkTgt) {
+        if (!shutdown.stopping()) {
+            runner.finishDedup(bulkTgt);
+        }
+
+        if (runner.throttle != null) {
+            runner.throttle.stop();
+        }
+
+        System.out.println(runner.tgt.getNamespace() + ":");
+        if (runner.referenceCheck != null) {
+            runner.referenceCheck.printSummary();
+        }
+        runner.batchLoader.printSummary();
+        runner.badDocuments.printSummary();
+
+        if (shutdown.stopping()) {
+            System.out.println("stopped early, loaded " + runner.loaded.get() + " documents");
+            return;
+        }
+
+        runner.loadMode.awaitDurable(runner.tgt, runner.loaded.get());
+
+        if (Boolean.getBoolean("etl.verify")) {
+            runner.verify();
+        }
+    }
+
+}
@@ -0,0 +1,183 @@
+package org.mongodb.etl;
+
+import org.bson.Document;
+import org.bson.types.Binary;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.List;
+import java.util.function.UnaryOperator;
+
+import static java.lang.invoke.MethodType.methodType;
+
+/**
+ * A {@link MappingSpec} generated into one method handle tree at startup.
+ *
+ * Each field becomes a chain of direct handles (get source value, null check, type converter, onError
+ * handler, append) with the field names and formats bound in as constants, and the fields are folded
+ * together in order. Where {@link CompiledMapping} loops over arrays of converter lambdas, this is
+ * straight-line code with no per-field dispatch: once the handle is hot the JIT customises it and can
+ * inline the converters into one compiled body.
+ *
+ * The converters themselves are the ones {@link CompiledMapping} uses, so both produce the same
+ * documents. Use {@link #generate(MappingSpec)} to fall back to the interpreted mapping if a handle
+ * cannot be built.
+ */
+class GeneratedMapping implements UnaryOperator<Document> {
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    private static final MethodHandle GET;
+    private static final MethodHandle APPEND;
+    private static final MethodHandle APPEND_NON_NULL;
+    private static final MethodHandle IS_NULL;
+    private static final MethodHandle REQUIRED;
+    private static final MethodHandle FAILED;
+    private static final MethodHandle CONVERT;
+    private static final MethodHandle NEW_DOCUMENT;
+
+    static {
+        try {
+            GET = LOOKUP.findVirtual(Document.class, "get", methodType(Object.class, Object.class));
+            APPEND = LOOKUP.findStatic(GeneratedMapping.class, "append", methodType(void.class, String.class, Document.class, Object.class));
+            APPEND_NON_NULL = LOOKUP.findStatic(GeneratedMapping.class, "appendNonNull", methodType(void.class, String.class, Document.class, Object.class));
+            IS_NULL = LOOKUP.findStatic(GeneratedMapping.class, "isNull", methodType(boolean.class, Object.class));
+            REQUIRED = LOOKUP.findStatic(GeneratedMapping.class, "required", methodType(Object.class, String.class, Object.class));
+            FAILED = LOOKUP.findStatic(GeneratedMapping.class, "failed", methodType(void.class, String.class, String.class, Exception.class, Document.class, Document.class));
+            CONVERT = LOOKUP.findVirtual(CompiledMapping.Converter.class, "convert", methodType(Object.class, Object.class));
+            NEW_DOCUMENT = LOOKUP.findConstructor(Document.class, methodType(void.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final MethodHandle handle;
+
+    GeneratedMapping(List<MappingSpec.FieldSpec> fields) throws ReflectiveOperationException {
+
+        // (Document tgt, Document src) -> tgt, with each field folded in front in spec order
+        MethodHandle body = MethodHandles.dropArguments(MethodHandles.identity(Document.class), 1, Document.class);
+        for (int i = fields.size() - 1; i >= 0; i--) {
+            body = MethodHandles.foldArguments(body, field(fields.get(i)));
+        }
+
+        // (Document src) -> new Document filled in by the body
+        handle = MethodHandles.foldArguments(body, NEW_DOCUMENT);
+    }
+
+    /**
+     * Generates the mapping, or falls back to the interpreted {@link CompiledMapping} if that fails.
+     */
+    static UnaryOperator<Document> generate(MappingSpec spec) {
+        CompiledMapping compiled = spec.compile();
+        try {
+            return new GeneratedMapping(spec.fields);
+        } catch (ReflectiveOperationException | RuntimeException | LinkageError e) {
+            System.out.println("unable to generate mapping, using the interpreted mapping: " + e);
+            return compiled;
+        }
+    }
+
+    @Override
+    public Document apply(Document doc) {
+        try {
+            return (Document) handle.invokeExact(doc);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new IllegalArgumentException(t);
+        }
+    }
+
+    /**
+     * (Document tgt, Document src) -> void, appending the converted field to tgt.
+     */
+    private static MethodHandle field(MappingSpec.FieldSpec field) throws ReflectiveOperationException {
+        MethodHandle value;
+
+        if ("randomUuid".equals(field.type)) {
+            value = MethodHandles.dropArguments(
+                    LOOKUP.findStatic(CompiledMapping.class, "randomUuid", methodType(Binary.class))
+                            .asType(methodType(Object.class)),
+                    0, Document.class);
+        } else {
+            MethodHandle get = MethodHandles.insertArguments(GET, 1, field.source);
+            value = MethodHandles.filterReturnValue(get, converter(field));
+        }
+
+        MethodHandle append = MethodHandles.insertArguments(field.omitNull ? APPEND_NON_NULL : APPEND, 0, field.target());
+        MethodHandle appendValue = MethodHandles.filterArguments(append, 1, value);
+
+        return MethodHandles.catchException(appendValue, Exception.class,
+                MethodHandles.insertArguments(FAILED, 0, field.source, field.target()));
+    }
+
+    /**
+     * (Object) -> Object for a field with a source, with the null and onError handling composed in.
+     */
+    private static MethodHandle converter(MappingSpec.FieldSpec field) throws ReflectiveOperationException {
+        MethodHandle base = base(field);
+
+        MethodHandle whenNull = field.required
+                ? MethodHandles.insertArguments(REQUIRED, 0, field.source)
+                : MethodHandles.dropArguments(MethodHandles.constant(Object.class, null), 0, Object.class);
+        MethodHandle nullSafe = MethodHandles.guardWithTest(IS_NULL, whenNull, base);
+
+        switch (field.onError) {
+            case "fail":
+                return nullSafe;
+            case "null":
+                return MethodHandles.catchException(nullSafe, Exception.class,
+                        MethodHandles.dropArguments(MethodHandles.constant(Object.class, null), 0, Exception.class, Object.class));
+            case "raw":
+                return MethodHandles.catchException(nullSafe, Exception.class,
+                        MethodHandles.dropArguments(MethodHandles.identity(Object.class), 0, Exception.class));
+            default:
+                throw new IllegalArgumentException("unknown onError (" + field.onError + ") for " + field.source);
+        }
+    }
+
+    private static MethodHandle base(MappingSpec.FieldSpec field) throws ReflectiveOperationException {
+        MethodType type = methodType(Object.class, Object.class);
+
+        switch (field.type) {
+            case "raw":
+                return MethodHandles.identity(Object.class);
+            case "string":
+                return LOOKUP.findStatic(CompiledMapping.class, "toText", type);
+            case "uuid":
+                return LOOKUP.findStatic(CompiledMapping.class, "toUuid", type);
+            case "date":
+                return CONVERT.bindTo(CompiledMapping.dateConverter(field.format == null ? CompiledMapping.DEFAULT_DATE_FORMAT : field.format));
+            case "list":
+                return LOOKUP.findStatic(CompiledMapping.class, "toList", type);
+            case "json":
+                return LOOKUP.findStatic(CompiledMapping.class, "toJson", type);
+            default:
+                throw new IllegalArgumentException("unknown type (" + field.type + ") for " + field.source);
+        }
+    }
+
+    private static void append(String name, Document target, Object value) {
+        target.append(name, value);
+    }
+
+    private static void appendNonNull(String name, Document target, Object value) {
+        if (value != null)
+            target.append(name, value);
+    }
+
+    private static boolean isNull(Object value) {
+        return value == null;
+    }
+
+    private static Object required(String source, Object value) {
+        throw new IllegalArgumentException(source + " is required");
+    }
+
+    private static void failed(String source, String target, Exception e, Document tgt, Document src) {
+        throw new IllegalArgumentException("unable to map " + source + " to " + target, e);
+    }
+
+}
@@ -0,0 +1,105 @@
+package org.mongodb.etl;
+
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoProcessor;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Shutdown hook letting a run stop cleanly on SIGTERM (or Ctrl-C).
+ *
+ * On shutdown the hook emits the stop signal, which the runner uses to cancel the source cursor. The
+ * documents already extracted still flow through the transform and load stages and in-flight batches
+ * are acknowledged, while the hook waits up to the drain time for the runner to finish and print its
+ * summaries. It then prints the number of documents acknowledged by the target, and the number still
+ * in unacknowledged batches if the drain time ran out, so the state of the target is known exactly.
+ *
+ * System properties:
+ *   etl.shutdown.drainSeconds - time allowed for in-flight batches after SIGTERM (default 30)
+ */
+class GracefulShutdown {
+
+    private final MonoProcessor<Boolean> stop = MonoProcessor.create();
+    private volatile CountDownLatch finished = new CountDownLatch(1);
+    private final LongSupplier loaded;
+    private final LongSupplier inFlight;
+    private final Runnable onStop;
+    private final long drainMillis;
+    private final Thread hook = new Thread(this::shutdown, "etl-shutdown");
+
+    private volatile boolean stopping;
+
+    GracefulShutdown(LongSupplier loaded, LongSupplier inFlight, Runnable onStop, long drainMillis) {
+        this.loaded = loaded;
+        this.inFlight = inFlight;
+        this.onStop = onStop;
+        this.drainMillis = drainMillis;
+    }
+
+    static GracefulShutdown fromProperties(LongSupplier loaded, LongSupplier inFlight, Runnable onStop) {
+        return new GracefulShutdown(loaded, inFlight, onStop,
+                TimeUnit.SECONDS.toMillis(Long.getLong("etl.shutdown.drainSeconds", 30)));
+    }
+
+    /**
+     * Registers the hook for the duration of a run. A shared shutdown is installed once per run, so the
+     * latch of the previous run is replaced.
+     */
+    void install() {
+        finished = new CountDownLatch(1);
+        Runtime.getRuntime().addShutdownHook(hook);
+    }
+
+    /**
+     * Called by the runner when the run returns, normally or after a stop. Lets a waiting hook go on,
+     * or removes the hook if the JVM is not shutting down.
+     */
+    void finished() {
+        finished.countDown();
+        if (!stopping) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(hook);
+            } catch (IllegalStateException e) {
+                // shutdown started in the meantime
+            }
+        }
+    }
+
+    /**
+     * Emits once a shutdown has started.
+     */
+    Mono<Boolean> signal() {
+        return stop;
+    }
+
+    boolean stopping() {
+        return stopping;
+    }
+
+    private void shutdown() {
+        stopping = true;
+        System.out.println("shutdown requested, stopping the extract and draining " + inFlight.getAsLong() +
+                " in-flight documents");
+
+        stop.onNext(true);
+        onStop.run();
+
+        boolean drained;
+        try {
+            drained = finished.await(drainMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            drained = false;
+        }
+
+        if (drained) {
+            System.out.println("shutdown complete, loaded " + loaded.getAsLong() + " documents");
+        } else {
+            System.out.println("shutdown drain timed out after " + drainMillis / 1000 + "s, loaded " +
+                    loaded.getAsLong() + " documents, " + inFlight.getAsLong() + " more in unacknowledged batches");
+        }
+    }
+
+}
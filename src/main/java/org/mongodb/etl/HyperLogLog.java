@@ -0,0 +1,82 @@
+package org.mongodb.etl;
+
+/**
+ * HyperLogLog distinct count estimate over 64 bit hashes, with 2^p one byte registers.
+ *
+ * The standard error is about 1.04 / sqrt(2^p): 1.6% with p = 12 (4KB), as the {@link SchemaProfiler}
+ * uses per field, 0.8% with p = 14 (16KB). Sketches with the same p merge by taking the register
+ * maximum, so partitions can be counted separately and combined.
+ */
+final class HyperLogLog {
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final int p;
+    private final byte[] registers;
+
+    HyperLogLog(int p) {
+        if (p < 4 || p > 18) {
+            throw new IllegalArgumentException("precision must be between 4 and 18 (" + p + ")");
+        }
+        this.p = p;
+        this.registers = new byte[1 << p];
+    }
+
+    void add(long hash) {
+        int index = (int) (hash >>> (64 - p));
+        // the sentinel bit caps the rank at 64 - p + 1
+        int rank = Long.numberOfLeadingZeros((hash << p) | (1L << (p - 1))) + 1;
+        if (rank > registers[index])
+            registers[index] = (byte) rank;
+    }
+
+    void merge(HyperLogLog other) {
+        if (other.p != p) {
+            throw new IllegalArgumentException("cannot merge precision " + other.p + " into " + p);
+        }
+        for (int i = 0; i < registers.length; i++) {
+            if (other.registers[i] > registers[i])
+                registers[i] = other.registers[i];
+        }
+    }
+
+    long estimate() {
+        int m = registers.length;
+        double sum = 0;
+        int zeros = 0;
+        for (byte register : registers) {
+            sum += 1.0 / (1L << register);
+            if (register == 0)
+                zeros++;
+        }
+
+        double alpha = 0.7213 / (1 + 1.079 / m);
+        double estimate = alpha * m * m / sum;
+
+        // linear counting while many registers are still empty
+        if (estimate <= 2.5 * m && zeros > 0)
+            estimate = m * Math.log((double) m / zeros);
+
+        return Math.round(estimate);
+    }
+
+    /**
+     * FNV-1a over the bytes, finished with the murmur3 64 bit mix so every bit of the result depends on
+     * every input byte.
+     */
+    static long hash(byte[] bytes, int offset, int length, long seed) {
+        long h = FNV_OFFSET ^ seed;
+        for (int i = offset; i < offset + length; i++) {
+            h ^= bytes[i] & 0xff;
+            h *= FNV_PRIME;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+}
@@ -0,0 +1,161 @@
+package org.mongodb.etl;
+
+import com.mongodb.client.model.Filters;
+import org.bson.BsonType;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.Binary;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One of 16 or 256 ranges of the natural key space, split by the first one or two hex digits.
+ *
+ * Keys are expected to be hex UUID strings, as exported by Cassandra for uuid columns. A source key
+ * falls in the range of its hex prefix in either case, so an upper case key is in the same range as its
+ * standard binary UUID on the target. Every other key (strings without a hex prefix, other types, null
+ * and missing keys) falls in the first range, so each document is in exactly one range. On the target
+ * side a UUID key is bounded by standard binaries, whose byte order matches the hex prefix order; the
+ * first and last range are open ended and the first also takes non binary keys.
+ */
+final class KeyRange {
+
+    private static final String HEX = "0123456789ABCDEFabcdef";
+
+    final int partition;
+    final int partitions;
+    private final int prefixDigits;
+
+    KeyRange(int partition, int partitions) {
+        if (partitions != 16 && partitions != 256) {
+            throw new IllegalArgumentException("key ranges must be 16 or 256 (" + partitions + ")");
+        }
+        this.partition = partition;
+        this.partitions = partitions;
+        this.prefixDigits = partitions == 16 ? 1 : 2;
+    }
+
+    /**
+     * All ranges for the given number of partitions, rounded to 16 or 256.
+     */
+    static List<KeyRange> split(int partitions) {
+        int n = partitions > 16 ? 256 : 16;
+        List<KeyRange> ranges = new ArrayList<>(n);
+        for (int i = 0; i < n; i++)
+            ranges.add(new KeyRange(i, n));
+        return ranges;
+    }
+
+    String lower() {
+        return partition == 0 ? null : hex(partition);
+    }
+
+    String upper() {
+        return partition == partitions - 1 ? null : hex(partition + 1);
+    }
+
+    /**
+     * Filter on the source key: the keys starting with the range's hex prefix in any case, plus every key
+     * without a hex prefix for the first range.
+     */
+    Bson source(String key) {
+        List<Bson> ranges = new ArrayList<>();
+        for (String prefix : caseVariants(hex(partition)))
+            ranges.add(range(key, prefix, successor(prefix)));
+
+        if (partition == 0) {
+            ranges.add(Filters.not(Filters.type(key, BsonType.STRING)));
+            addOtherKeys(ranges, key, "");
+        }
+        return ranges.size() == 1 ? ranges.get(0) : Filters.or(ranges);
+    }
+
+    /**
+     * Filter on the target key, a standard binary UUID if uuid is set.
+     */
+    Bson target(String key, boolean uuid) {
+        if (!uuid)
+            return source(key);
+
+        Bson range = range(key,
+                partition == 0 ? null : uuidBound(partition),
+                partition == partitions - 1 ? null : uuidBound(partition + 1));
+        return partition == 0 ? Filters.or(range, Filters.not(Filters.type(key, BsonType.BINARY))) : range;
+    }
+
+    @Override
+    public String toString() {
+        return "[" + (lower() == null ? "" : lower()) + ", " + (upper() == null ? "" : upper()) + ")";
+    }
+
+    private static Bson range(String key, Object lower, Object upper) {
+        if (lower == null && upper == null)
+            return new Document();
+        if (lower == null)
+            return Filters.lt(key, upper);
+        if (upper == null)
+            return Filters.gte(key, lower);
+        return Filters.and(Filters.gte(key, lower), Filters.lt(key, upper));
+    }
+
+    /**
+     * Adds the string keys that continue the prefix with something other than a hex digit, for every hex
+     * prefix shorter than the range prefix. Each is an index range, unlike a negated regex.
+     */
+    private void addOtherKeys(List<Bson> ranges, String key, String prefix) {
+        boolean root = prefix.isEmpty();
+        ranges.add(range(key, root ? null : prefix, prefix + "0"));
+        ranges.add(range(key, prefix + ":", prefix + "A"));
+        ranges.add(range(key, prefix + "G", prefix + "a"));
+        ranges.add(range(key, prefix + "g", root ? null : successor(prefix)));
+
+        if (prefix.length() + 1 < prefixDigits) {
+            for (char digit : HEX.toCharArray())
+                addOtherKeys(ranges, key, prefix + digit);
+        }
+    }
+
+    /**
+     * The prefix with its letters in every combination of cases, e.g. 0a and 0A.
+     */
+    private static List<String> caseVariants(String prefix) {
+        List<String> variants = new ArrayList<>();
+        variants.add("");
+        for (char c : prefix.toCharArray()) {
+            List<String> next = new ArrayList<>();
+            for (String variant : variants) {
+                next.add(variant + c);
+                if (Character.isLetter(c))
+                    next.add(variant + Character.toUpperCase(c));
+            }
+            variants = next;
+        }
+        return variants;
+    }
+
+    /**
+     * Smallest string above every string starting with the prefix.
+     */
+    private static String successor(String prefix) {
+        int last = prefix.length() - 1;
+        return prefix.substring(0, last) + (char) (prefix.charAt(last) + 1);
+    }
+
+    private String hex(int partition) {
+        String hex = Integer.toHexString(partition);
+        while (hex.length() < prefixDigits)
+            hex = "0" + hex;
+        return hex;
+    }
+
+    /**
+     * Lower bound of the partition as a standard (subtype 4) binary UUID, matching the hex prefix order.
+     */
+    private Binary uuidBound(int partition) {
+        byte[] bytes = new byte[16];
+        bytes[0] = (byte) (prefixDigits == 1 ? partition << 4 : partition);
+        return new Binary(Uuids.STANDARD_SUBTYPE, bytes);
+    }
+
+}
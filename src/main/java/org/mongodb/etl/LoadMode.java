@@ -0,0 +1,69 @@
+package org.mongodb.etl;
+
+import com.mongodb.MongoWriteConcernException;
+import com.mongodb.WriteConcern;
+import com.mongodb.client.model.Filters;
+import com.mongodb.reactivestreams.client.MongoCollection;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import reactor.core.publisher.Mono;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write concern used by the load stage, selected with -Detl.loadMode.
+ *
+ * SAFE inherits the write concern of the connection string for every insertMany. RELAXED inserts with
+ * w:1 and no journal wait during the bulk phase, then ends with a majority barrier: a no-op write with
+ * w:majority, which is only acknowledged once everything written before it is majority committed, so the
+ * guarantee at completion is that of a majority write concern. Both then check the target count.
+ */
+enum LoadMode {
+
+    SAFE,
+    RELAXED;
+
+    static final long BARRIER_TIMEOUT_MS = TimeUnit.MINUTES.toMillis(Long.getLong("etl.barrierTimeoutMinutes", 10));
+
+    static LoadMode fromProperties() {
+        return valueOf(System.getProperty("etl.loadMode", SAFE.name()).toUpperCase());
+    }
+
+    /**
+     * Target collection to insert through during the bulk phase.
+     */
+    MongoCollection<Document> bulkTarget(MongoCollection<Document> tgt) {
+        return this == RELAXED ? tgt.withWriteConcern(WriteConcern.W1.withJournal(false)) : tgt;
+    }
+
+    /**
+     * Blocks until the loaded documents are majority committed and checks the count. SAFE writes were
+     * already acknowledged with the connection string's write concern, so only the count is checked.
+     * The count is the collection's metadata count, which is exact once no write is in flight and does
+     * not scan the target like countDocuments.
+     */
+    void awaitDurable(MongoCollection<Document> tgt, long expected) {
+
+        if (this == RELAXED) {
+            long start = System.currentTimeMillis();
+            try {
+                Mono.from(tgt.withWriteConcern(WriteConcern.MAJORITY.withWTimeout(BARRIER_TIMEOUT_MS, TimeUnit.MILLISECONDS))
+                        .deleteOne(Filters.eq("_id", new ObjectId())))
+                        .block();
+            } catch (MongoWriteConcernException e) {
+                throw new IllegalStateException("loaded documents not majority committed after " +
+                        BARRIER_TIMEOUT_MS / 1000 + "s: " + e.getMessage(), e);
+            }
+            System.out.println("majority committed after " + (System.currentTimeMillis() - start) + "ms");
+        }
+
+        long count = Mono.from(tgt.estimatedDocumentCount()).block();
+        if (count != expected) {
+            throw new IllegalStateException("target count mismatch: loaded " + expected +
+                    " documents but the target holds " + count);
+        }
+
+        System.out.println("verified " + count + " documents in the target");
+    }
+
+}
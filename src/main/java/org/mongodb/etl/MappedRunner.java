@@ -0,0 +1,104 @@
+package org.mongodb.etl;
+
+import org.bson.Document;
+import reactor.core.publisher.Mono;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.UnaryOperator;
+
+/**
+ * Runner driven by a YAML {@link MappingSpec} instead of a hand written transform, so a new collection
+ * needs a spec rather than another Runner subclass. The specs for the existing collections are on the
+ * classpath under mappings/.
+ *
+ * System properties:
+ *   etl.mapping.generate - "true" to run the spec as a {@link GeneratedMapping} method handle rather than
+ *                          the interpreted {@link CompiledMapping}, falling back to the latter if
+ *                          generation fails
+ */
+public class MappedRunner extends Runner {
+
+    private final MappingSpec spec;
+    private final UnaryOperator<Document> mapping;
+
+    public static void main(String[] args) {
+
+        /*
+            Args :
+                MongoURI,
+                Source Namespace
+                Target Namespace
+                Mapping spec (file or classpath resource)
+
+            Example:
+                "mongodb://localhost:27017"
+                "groupmanager.memberplay"
+                "groupmanager.memberplayout"
+                "mappings/member.yaml"
+         */
+
+        if (args.length != 4) {
+            throw new IllegalArgumentException("expected 4 arguments: mongoUri <src namespace> <tgt namespace> <mapping spec>");
+        }
+
+        new MappedRunner(args[0], args[1], args[2], MappingSpec.load(args[3])).run();
+    }
+
+    public MappedRunner(String mongoUri, String srcNs, String tgtNs, MappingSpec spec) {
+        super(mongoUri, srcNs, tgtNs);
+        this.spec = spec;
+        this.mapping = Boolean.getBoolean("etl.mapping.generate") ? GeneratedMapping.generate(spec) : spec.compile();
+    }
+
+    @Override
+    protected List<String> fields() {
+        return spec.sourceFields();
+    }
+
+    @Override
+    protected List<String> naturalKey() {
+        return spec.naturalKey;
+    }
+
+    @Override
+    protected String updatedField() {
+        return spec.updated != null ? spec.updated : super.updatedField();
+    }
+
+    @Override
+    protected String sourceKey() {
+        return spec.key.source;
+    }
+
+    @Override
+    protected String targetKey() {
+        return spec.key.target;
+    }
+
+    @Override
+    protected boolean uuidKey() {
+        return spec.key.uuid;
+    }
+
+    @Override
+    protected Set<String> unverifiedFields() {
+        Set<String> unverified = new LinkedHashSet<>();
+        for (MappingSpec.FieldSpec field : spec.fields) {
+            if ("randomUuid".equals(field.type))
+                unverified.add(field.target());
+        }
+        return unverified;
+    }
+
+    @Override
+    protected Mono<Document> transform(Document doc) {
+        try {
+            return Mono.just(mapping.apply(doc));
+        } catch (Exception e) {
+            return skipBadDocument(doc, e);
+        }
+    }
+
+}
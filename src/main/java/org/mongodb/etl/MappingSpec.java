@@ -0,0 +1,126 @@
+package org.mongodb.etl;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Declarative collection mapping, read from YAML and compiled once into a {@link CompiledMapping}.
+ *
+ * <pre>
+ * key: { source: groupid, target: groupid, uuid: true }
+ * naturalKey: [ groupid, memberid ]
+ * updated: updatedat
+ * fields:
+ *   - { target: _id, type: randomUuid }
+ *   - { source: memberid, type: string, omitNull: true }
+ *   - { source: groupid, type: uuid }
+ *   - { source: createdat, type: date, onError: "null", omitNull: true }
+ * </pre>
+ *
+ * Field types:
+ *   raw        - the source value as is
+ *   string     - String, or an Integer converted to its String form; other types are null
+ *   uuid       - canonical UUID string to a standard binary
+ *   randomUuid - a new random UUID (no source), for _id
+ *   date       - string parsed with format (default yyyy-MM-dd HH:mm:ss, UTC); empty strings are null
+ *   list       - "['a', 'b']" style string split into a list of trimmed strings; empty strings are null
+ *   json       - JSON string parsed into a sub-document
+ *
+ * onError decides what a failed conversion yields: fail (the document is rejected, the default), null,
+ * or raw (the source value). A null source value maps to null unless the field is required, in which
+ * case it fails. With omitNull a null result leaves the field out of the target.
+ *
+ * updated names the source field holding the last change time of a row, read by delta runs (default
+ * updatedat).
+ */
+public class MappingSpec {
+
+    public KeySpec key;
+    public List<String> naturalKey = Collections.emptyList();
+    public String updated;
+    public List<FieldSpec> fields = new ArrayList<>();
+
+    public static class KeySpec {
+        public String source;
+        public String target;
+        public boolean uuid;
+    }
+
+    public static class FieldSpec {
+        public String source;
+        public String target;
+        public String type = "raw";
+        public String format;
+        public String onError = "fail";
+        public boolean omitNull;
+        public boolean required;
+
+        String target() {
+            return target != null ? target : source;
+        }
+    }
+
+    private static final ObjectMapper YAML = new ObjectMapper(new YAMLFactory())
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, true);
+
+    /**
+     * Loads a spec from a file, or failing that from a classpath resource such as mappings/member.yaml.
+     */
+    public static MappingSpec load(String location) {
+        try {
+            Path path = Paths.get(location);
+            if (Files.exists(path)) {
+                try (InputStream in = Files.newInputStream(path)) {
+                    return parse(in);
+                }
+            }
+
+            try (InputStream in = MappingSpec.class.getClassLoader().getResourceAsStream(location)) {
+                if (in == null) {
+                    throw new IllegalArgumentException("mapping spec not found (" + location + ")");
+                }
+                return parse(in);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("unable to read mapping spec (" + location + ")", e);
+        }
+    }
+
+    static MappingSpec parse(InputStream in) throws IOException {
+        return YAML.readValue(in, MappingSpec.class);
+    }
+
+    /**
+     * Source fields read by the mapping, for the projection.
+     */
+    public List<String> sourceFields() {
+        List<String> sources = new ArrayList<>();
+        for (FieldSpec field : fields) {
+            if (field.source != null && !sources.contains(field.source))
+                sources.add(field.source);
+        }
+        return sources;
+    }
+
+    /**
+     * Resolves every field's converter once, validating the spec.
+     */
+    public CompiledMapping compile() {
+        if (key == null || key.source == null || key.target == null) {
+            throw new IllegalArgumentException("mapping spec needs a key with source and target");
+        }
+        return new CompiledMapping(fields);
+    }
+
+}
@@ -0,0 +1,151 @@
+package org.mongodb.etl;
+
+import com.mongodb.client.model.Filters;
+import com.mongodb.reactivestreams.client.MongoCollection;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.Codec;
+import org.bson.conversions.Bson;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscription;
+import reactor.core.publisher.BaseSubscriber;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+
+/**
+ * Read-ahead of the source cursor, so the next getMore is on the wire while the transform stage works
+ * through the current batch.
+ *
+ * The driver only sends a getMore once the documents of the previous batch have been requested, and
+ * the transform stage requests a few at a time, so without read-ahead extraction waits a full round
+ * trip per batch. Here a whole cursor batch is requested again as soon as the previous one has arrived,
+ * for as long as the documents received but not yet taken by the transform stage stay under the byte
+ * limit. Documents are read as raw BSON, which gives their size for free, and decoded as they are
+ * handed on.
+ *
+ * With more than one cursor the key space is split into 16 adjacent {@link KeyRange}s that are read
+ * that many at a time, each with its share of the byte limit.
+ *
+ * System properties:
+ *   etl.prefetch.bytes   - raw source bytes to read ahead of the transform stage (default 0, off)
+ *   etl.prefetch.cursors - range cursors read concurrently (default 1)
+ */
+class Prefetch {
+
+    private final long maxBytes;
+    private final int cursors;
+
+    Prefetch(long maxBytes, int cursors) {
+        this.maxBytes = maxBytes;
+        this.cursors = cursors;
+    }
+
+    /**
+     * Creates the read-ahead configured by system properties, or null if it is not enabled.
+     */
+    static Prefetch fromProperties() {
+        long bytes = Long.getLong("etl.prefetch.bytes", 0);
+        if (bytes <= 0)
+            return null;
+
+        return new Prefetch(bytes, Math.max(1, Integer.getInteger("etl.prefetch.cursors", 1)));
+    }
+
+    /**
+     * Source documents matching the query, read ahead.
+     */
+    Flux<Document> find(MongoCollection<Document> src, Bson query, Bson projection, String key, int batchSize) {
+        MongoCollection<RawBsonDocument> raw = src.withDocumentClass(RawBsonDocument.class);
+        Codec<Document> codec = src.getCodecRegistry().get(Document.class);
+
+        if (cursors == 1)
+            return readAhead(raw.find(query).projection(projection).batchSize(batchSize), maxBytes, batchSize, codec);
+
+        return Flux.fromIterable(KeyRange.split(16))
+                .flatMap(range -> readAhead(raw.find(Filters.and(query, range.source(key)))
+                        .projection(projection)
+                        .batchSize(batchSize), maxBytes / cursors, batchSize, codec), cursors);
+    }
+
+    private static Flux<Document> readAhead(Publisher<RawBsonDocument> cursor, long maxBytes, int batchSize,
+                                            Codec<Document> codec) {
+        return Flux.defer(() -> {
+            ReadAhead reader = new ReadAhead(cursor, maxBytes, batchSize);
+            return Flux.<RawBsonDocument>create(reader::start, FluxSink.OverflowStrategy.BUFFER)
+                    .doOnNext(reader::taken)
+                    .map(doc -> doc.decode(codec));
+        });
+    }
+
+    /**
+     * Requests cursor batches while the documents waiting in the sink stay under the byte limit.
+     */
+    private static final class ReadAhead extends BaseSubscriber<RawBsonDocument> {
+
+        private final Publisher<RawBsonDocument> cursor;
+        private final long maxBytes;
+        private final int batchSize;
+
+        private FluxSink<RawBsonDocument> sink;
+        private long buffered;
+        private long outstanding;
+
+        ReadAhead(Publisher<RawBsonDocument> cursor, long maxBytes, int batchSize) {
+            this.cursor = cursor;
+            this.maxBytes = maxBytes;
+            this.batchSize = batchSize;
+        }
+
+        void start(FluxSink<RawBsonDocument> sink) {
+            this.sink = sink;
+            sink.onDispose(this);
+            cursor.subscribe(this);
+        }
+
+        void taken(RawBsonDocument doc) {
+            synchronized (this) {
+                buffered -= size(doc);
+            }
+            refill();
+        }
+
+        @Override
+        protected void hookOnSubscribe(Subscription subscription) {
+            refill();
+        }
+
+        @Override
+        protected void hookOnNext(RawBsonDocument doc) {
+            synchronized (this) {
+                outstanding--;
+                buffered += size(doc);
+            }
+            sink.next(doc);
+            refill();
+        }
+
+        @Override
+        protected void hookOnComplete() {
+            sink.complete();
+        }
+
+        @Override
+        protected void hookOnError(Throwable e) {
+            sink.error(e);
+        }
+
+        private void refill() {
+            synchronized (this) {
+                if (outstanding > 0 || buffered >= maxBytes)
+                    return;
+                outstanding = batchSize;
+            }
+            request(batchSize);
+        }
+
+        private static long size(RawBsonDocument doc) {
+            return doc.getByteBuffer().remaining();
+        }
+    }
+
+}
@@ -0,0 +1,68 @@
+package org.mongodb.etl;
+
+import com.mongodb.client.model.Sorts;
+import com.mongodb.reactivestreams.client.MongoCollection;
+import org.bson.Document;
+import reactor.core.publisher.Flux;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Times range reads on the target key of a freshly loaded target, to compare load layouts such as the
+ * {@link OrderedLoad}.
+ *
+ * Each query reads the first etl.rangeProbe.docs documents of one of the 256 {@link KeyRange}s in key
+ * order, as a downstream range read would. The ranges are drawn with a fixed seed so every run probes
+ * the same ones. It runs right after the load, so the cache holds what the load left in it; the target
+ * key should be indexed (_id always is).
+ *
+ * System properties:
+ *   etl.rangeProbe      - number of range queries to time after the load (default 0, off)
+ *   etl.rangeProbe.docs - documents read per query (default 1000)
+ */
+class RangeProbe {
+
+    private final int queries;
+    private final int docs;
+
+    RangeProbe(int queries, int docs) {
+        this.queries = queries;
+        this.docs = docs;
+    }
+
+    /**
+     * Creates the probe configured by system properties, or null if no queries are to be timed.
+     */
+    static RangeProbe fromProperties() {
+        int queries = Integer.getInteger("etl.rangeProbe", 0);
+        if (queries <= 0)
+            return null;
+        return new RangeProbe(queries, Integer.getInteger("etl.rangeProbe.docs", 1000));
+    }
+
+    void run(MongoCollection<Document> tgt, String key, boolean uuid) {
+        Random random = new Random(42);
+        long[] nanos = new long[queries];
+        long read = 0;
+
+        for (int i = 0; i < queries; i++) {
+            KeyRange range = new KeyRange(random.nextInt(256), 256);
+            long start = System.nanoTime();
+            Long count = Flux.from(tgt.find(range.target(key, uuid))
+                    .sort(Sorts.ascending(key))
+                    .limit(docs)
+                    .batchSize(docs))
+                    .count()
+                    .block();
+            nanos[i] = System.nanoTime() - start;
+            read += count == null ? 0 : count;
+        }
+
+        Arrays.sort(nanos);
+        System.out.println(String.format("range probe on %s: %d queries, %d docs read, p50 %.1fms, p95 %.1fms, max %.1fms",
+                key, queries, read,
+                nanos[queries / 2] / 1e6, nanos[Math.min(queries - 1, queries * 95 / 100)] / 1e6, nanos[queries - 1] / 1e6));
+    }
+
+}
@@ -0,0 +1,165 @@
+package org.mongodb.etl;
+
+import com.mongodb.client.model.InsertManyOptions;
+import com.mongodb.client.model.Projections;
+import com.mongodb.reactivestreams.client.MongoClient;
+import com.mongodb.reactivestreams.client.MongoCollection;
+import org.bson.BsonBinary;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.types.Binary;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Referential check of transformed documents against the _ids of a reference collection, e.g. member
+ * groupid or association authgroupid against the RunnerGroup output.
+ *
+ * All reference _ids are loaded into an off-heap {@link UuidSet}. Documents whose reference is missing
+ * are kept out of the target and inserted into a report collection instead.
+ *
+ * System properties:
+ *   etl.refcheck.ns     - reference namespace whose _ids are loaded; the check is off if unset
+ *   etl.refcheck.field  - field of the transformed document holding the reference (default groupid)
+ *   etl.refcheck.report - namespace orphans are written to (default: target collection + "_orphans")
+ */
+class ReferenceCheck {
+
+    private final MongoCollection<RawBsonDocument> reference;
+    private final MongoCollection<Document> report;
+    private final String field;
+    private final InsertManyOptions options = new InsertManyOptions().ordered(false);
+    private final AtomicLong checked = new AtomicLong();
+    private final AtomicLong orphans = new AtomicLong();
+    private UuidSet ids;
+
+    ReferenceCheck(MongoCollection<RawBsonDocument> reference, MongoCollection<Document> report, String field) {
+        this.reference = reference;
+        this.report = report;
+        this.field = field;
+    }
+
+    /**
+     * Creates the check configured by system properties, or null if it is not enabled.
+     */
+    static ReferenceCheck fromProperties(MongoClient client, String tgtNs) {
+        String ns = System.getProperty("etl.refcheck.ns");
+        if (ns == null || ns.isEmpty())
+            return null;
+
+        String[] split = ns.split("\\.");
+        String[] reportSplit = System.getProperty("etl.refcheck.report", tgtNs + "_orphans").split("\\.");
+        if (split.length != 2) {
+            throw new IllegalArgumentException("refcheck namespace is not valid (" + ns + ")");
+        }
+        if (reportSplit.length != 2) {
+            throw new IllegalArgumentException("refcheck report namespace is not valid (" + String.join(".", reportSplit) + ")");
+        }
+
+        return new ReferenceCheck(
+                client.getDatabase(split[0]).getCollection(split[1], RawBsonDocument.class),
+                client.getDatabase(reportSplit[0]).getCollection(reportSplit[1], Document.class),
+                System.getProperty("etl.refcheck.field", "groupid"));
+    }
+
+    /**
+     * Loads every reference _id into the set. The _ids are read as raw BSON so no UUIDs are decoded.
+     */
+    void load() {
+        long start = System.currentTimeMillis();
+        long expected = Mono.from(reference.estimatedDocumentCount()).block();
+
+        // headroom for documents inserted since the count
+        ids = new UuidSet(expected + expected / 10 + 1024);
+
+        Flux.from(reference.find().projection(Projections.include("_id")).batchSize(20000))
+                .doOnNext(raw -> {
+                    BsonBinary id = raw.getBinary("_id");
+                    byte[] bytes = id.getData();
+                    if (bytes.length == 16)
+                        ids.add(Uuids.readLong(bytes, 0), Uuids.readLong(bytes, 8));
+                })
+                .blockLast();
+
+        System.out.println("loaded " + ids.size() + " reference ids (" + (ids.memory() >> 20) + "MB off-heap) in " +
+                (System.currentTimeMillis() - start) + "ms");
+    }
+
+    /**
+     * Drops the report of a previous run. Only the coordinator does this, workers append to the report.
+     */
+    void resetReport() {
+        Mono.from(report.drop()).block();
+    }
+
+    /**
+     * Returns the documents of the batch whose reference exists, writing the others to the report.
+     */
+    Mono<List<Document>> check(List<Document> batch) {
+        List<Document> valid = new ArrayList<>(batch.size());
+        List<Document> missing = null;
+
+        for (Document doc : batch) {
+            if (exists(doc.get(field))) {
+                valid.add(doc);
+            } else {
+                if (missing == null)
+                    missing = new ArrayList<>();
+                missing.add(doc);
+            }
+        }
+
+        checked.addAndGet(batch.size());
+        if (missing == null)
+            return Mono.just(valid);
+
+        orphans.addAndGet(missing.size());
+        return Mono.from(report.insertMany(missing, options)).thenReturn(valid);
+    }
+
+    /**
+     * True if the document's reference exists, without recording anything.
+     */
+    boolean valid(Document doc) {
+        return exists(doc.get(field));
+    }
+
+    void printSummary() {
+        System.out.println("checked " + checked.get() + " " + field + " references, " +
+                orphans.get() + " orphans written to " + report.getNamespace());
+    }
+
+    /**
+     * Null references are not checked; binaries and strings are read as standard UUIDs, anything else is an orphan.
+     */
+    private boolean exists(Object value) {
+        if (value == null)
+            return true;
+        if (value instanceof UUID) {
+            UUID uuid = (UUID) value;
+            return ids.contains(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+        }
+        if (value instanceof Binary) {
+            Binary binary = (Binary) value;
+            if (!Uuids.isStandard(binary))
+                return false;
+            byte[] bytes = binary.getData();
+            return ids.contains(Uuids.readLong(bytes, 0), Uuids.readLong(bytes, 8));
+        }
+        if (value instanceof String) {
+            try {
+                String uuid = (String) value;
+                return ids.contains(Uuids.mostSignificantBits(uuid), Uuids.leastSignificantBits(uuid));
+            } catch (IllegalArgumentException e) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+}
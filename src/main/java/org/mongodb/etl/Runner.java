@@ -0,0 +1,710 @@
+package org.mongodb.etl;
+
+import com.mongodb.ConnectionString;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.ReadPreference;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.InsertManyOptions;
+import com.mongodb.client.model.Projections;
+import com.mongodb.reactivestreams.client.MongoClient;
+import com.mongodb.reactivestreams.client.MongoClients;
+import com.mongodb.reactivestreams.client.MongoCollection;
+import com.mongodb.reactivestreams.client.Success;
+import org.bson.BsonString;
+import org.bson.Document;
+import org.bson.UuidRepresentation;
+import org.bson.codecs.UuidCodec;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.conversions.Bson;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoProcessor;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import static org.bson.codecs.configuration.CodecRegistries.fromCodecs;
+import static org.bson.codecs.configuration.CodecRegistries.fromProviders;
+import static org.bson.codecs.configuration.CodecRegistries.fromRegistries;
+
+/**
+ * Common extract / transform / load plumbing shared by the collection runners.
+ *
+ * Optional settings are read from system properties:
+ *   etl.srcUri      - connection string for the source cluster (default: the target's mongoUri)
+ *   etl.filter      - JSON query applied to the source cursor, for partial migrations
+ *   etl.concurrency - number of concurrent transform and insertMany operations (default 8)
+ *   etl.profile     - "bulk" to apply the {@link BulkProfile} client settings
+ *   etl.loadMode    - {@link LoadMode} write concern strategy for the load stage (default SAFE)
+ *   etl.verify      - "true" to compare the target against the source with the {@link Verifier} after run()
+ *   etl.enrich.*    - reference collection lookup, see {@link Enricher}
+ *   etl.refcheck.*  - referential check against a reference collection, see {@link ReferenceCheck}
+ *   etl.dedup.*     - natural key dedup of the transformed documents, see {@link Deduplicator}
+ *   etl.queue.*     - split the run over several processes with a lease based {@link WorkQueue}
+ *   etl.rate.*      - read and write rate limits, see {@link Throttle}
+ *   etl.retry.*     - retries of failed inserts and the reject collection, see {@link BatchLoader}
+ *   etl.shutdown.*  - draining in-flight batches on SIGTERM, see {@link GracefulShutdown}
+ *   etl.prefetch.*  - byte bounded read-ahead of the source cursor, see {@link Prefetch}
+ *   etl.targetCodec - "true" to encode documents with the {@link TargetDocumentCodec} instead of the DocumentCodec
+ *   etl.badDocs.*   - sampling and rate limit of the bad document log, see {@link BadDocuments}
+ *   etl.delta.*     - migrate only the rows changed since the last run, see {@link DeltaSync}
+ *   etl.alloc.*     - allocation, GC and heap figures and a Flight Recorder recording, see {@link AllocationProfiler}
+ *   etl.dryRun.*    - extract only, extract and transform, or load generated documents, see {@link DryRun}
+ *   etl.ordered.*   - keep source key order within each key range, see {@link OrderedLoad}
+ *   etl.rangeProbe  - time range reads on the target key after the load, see {@link RangeProbe}
+ *   etl.engine      - "blocking" to load with the synchronous driver {@link BlockingEngine} (default reactive)
+ */
+public abstract class Runner {
+
+    protected MongoClient client;
+    protected MongoClient srcClient;
+    protected int batchSize = 20000;
+    protected int concurrency = Integer.getInteger("etl.concurrency", 8);
+    protected MongoCollection<Document> src;
+    protected MongoCollection<Document> tgt;
+    protected InsertManyOptions options;
+    protected Bson filter;
+    protected LoadMode loadMode = LoadMode.fromProperties();
+    protected final AtomicLong loaded = new AtomicLong();
+    protected final AtomicLong inFlight = new AtomicLong();
+    protected final BadDocuments badDocuments = BadDocuments.fromProperties();
+    protected Enricher enricher;
+    protected ReferenceCheck referenceCheck;
+    protected Deduplicator deduplicator;
+    protected WorkQueue workQueue;
+    protected Throttle throttle;
+    protected BatchLoader batchLoader;
+    protected Prefetch prefetch;
+    protected DeltaSync delta;
+    protected GracefulShutdown shutdown;
+    protected AllocationProfiler profiler;
+    protected OrderedLoad ordered;
+    private Mono<Boolean> fence;
+    protected String engine = System.getProperty("etl.engine", "reactive");
+    private boolean separateSource;
+    private final String srcUri;
+    private final String tgtUri;
+
+    protected Runner(String mongoUri, String srcNs, String tgtNs) {
+        this(System.getProperty("etl.srcUri", mongoUri), mongoUri, srcNs, tgtNs);
+    }
+
+    /**
+     * Reads from and writes to separate clients, so the source scan has its own pool and can be served
+     * by secondaries or a different cluster while the target primary absorbs the inserts.
+     */
+    protected Runner(String srcUri, String tgtUri, String srcNs, String tgtNs) {
+
+        String[] srcSplit = srcNs.split("\\.");
+        String[] tgtSplit = tgtNs.split("\\.");
+
+        if (srcSplit.length != 2) {
+            throw new IllegalArgumentException("src namespace is not valid (" + srcNs + ")");
+        }
+        if (tgtSplit.length != 2) {
+            throw new IllegalArgumentException("tgt namespace is not valid (" + tgtNs + ")");
+        }
+
+        this.srcUri = srcUri;
+        this.tgtUri = tgtUri;
+        srcClient = createClient(srcUri, Integer.getInteger("etl.srcPoolSize", 4));
+        client = createClient(tgtUri, Integer.getInteger("etl.tgtPoolSize", concurrency + 2));
+        separateSource = !srcUri.equals(tgtUri);
+
+        src = srcClient.getDatabase(srcSplit[0]).getCollection(srcSplit[1], Document.class);
+
+        ReadPreference readPreference = BulkProfile.readPreference();
+        if (readPreference != null) {
+            src = src.withReadPreference(readPreference);
+        }
+
+        tgt = client.getDatabase(tgtSplit[0]).getCollection(tgtSplit[1], Document.class);
+
+        options = new InsertManyOptions();
+        options.ordered(false);
+        batchLoader = BatchLoader.fromProperties(client, tgtNs, options, loaded);
+
+        enricher = Enricher.fromProperties(client);
+        referenceCheck = ReferenceCheck.fromProperties(client, tgtNs);
+        workQueue = WorkQueue.fromProperties(client, tgtNs);
+        throttle = Throttle.fromProperties(srcClient, client);
+        prefetch = Prefetch.fromProperties();
+        profiler = AllocationProfiler.fromProperties();
+        ordered = OrderedLoad.fromProperties();
+        shutdown = GracefulShutdown.fromProperties(loaded::get, inFlight::get, () -> {
+            if (workQueue != null)
+                workQueue.stop();
+        });
+
+        String filterJson = System.getProperty("etl.filter");
+        if (filterJson != null && filterJson.length() > 0) {
+            filter = Document.parse(filterJson);
+        }
+    }
+
+    private static MongoClient createClient(String uri, int poolSize) {
+        return MongoClients.create(clientSettings(uri, poolSize));
+    }
+
+    /**
+     * Settings shared by the reactive clients and the {@link BlockingEngine}'s synchronous ones.
+     */
+    static MongoClientSettings clientSettings(String uri, int poolSize) {
+
+        CodecRegistry registry = fromRegistries(
+                fromCodecs(new UuidCodec(UuidRepresentation.STANDARD)),
+                MongoClientSettings.getDefaultCodecRegistry());
+
+        if (Boolean.getBoolean("etl.targetCodec")) {
+            registry = fromRegistries(fromProviders(TargetDocumentCodec.provider()), registry);
+        }
+
+        MongoClientSettings.Builder builder = MongoClientSettings.builder()
+                .codecRegistry(registry)
+                .applyConnectionString(new ConnectionString(uri));
+
+        if (BulkProfile.enabled()) {
+            BulkProfile.apply(builder, poolSize);
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * Source fields read by {@link #transform(Document)}, pushed down to the cursor as a projection.
+     */
+    protected abstract List<String> fields();
+
+    /**
+     * Maps a source document to its target shape.
+     */
+    protected abstract Mono<Document> transform(Document doc);
+
+    /**
+     * Source field holding the natural key, used to partition verification.
+     */
+    protected abstract String sourceKey();
+
+    /**
+     * Target field the natural key is written to.
+     */
+    protected abstract String targetKey();
+
+    /**
+     * True if the natural key is stored in the target as a standard binary UUID.
+     */
+    protected boolean uuidKey() {
+        return false;
+    }
+
+    /**
+     * Target fields identifying a logical row, used to drop duplicates. Empty if the runner has none.
+     */
+    protected List<String> naturalKey() {
+        return Collections.emptyList();
+    }
+
+    /**
+     * Source field holding the last change time of a row, used by the {@link DeltaSync}.
+     */
+    protected String updatedField() {
+        return "updatedat";
+    }
+
+    /**
+     * Target fields that are not derived from the source (e.g. a random _id) and so cannot be verified.
+     */
+    protected Set<String> unverifiedFields() {
+        return Collections.singleton("_id");
+    }
+
+    /**
+     * Restricts the extract to the source documents matching the given query.
+     */
+    public void setFilter(Bson filter) {
+        this.filter = filter;
+    }
+
+    public void setLoadMode(LoadMode loadMode) {
+        this.loadMode = loadMode;
+    }
+
+    /**
+     * Selects the load engine, "reactive" for the Flux pipeline or "blocking" for the {@link BlockingEngine}.
+     */
+    public void setEngine(String engine) {
+        this.engine = engine;
+    }
+
+    protected Bson projection() {
+        return Projections.fields(Projections.include(fields()), Projections.excludeId());
+    }
+
+    /**
+     * Replaces the source with docCount generated documents, see {@link #testDocument(int)}.
+     */
+    public void populateTestData(int docCount) {
+
+        System.out.println("dropping src collection");
+        Mono.from(src.drop()).block();
+
+        long start = System.currentTimeMillis();
+
+        Flux<Document> docFlux = Flux.generate(
+                () -> 1,
+                (state, sink) -> {
+                    sink.next(testDocument(state));
+                    if (state == docCount)
+                        sink.complete();
+                    return state+1;
+                }
+        );
+
+        docFlux
+                .buffer(batchSize)
+                .flatMap(batch -> src.insertMany(batch, options), 3)
+                .blockLast();
+
+        double time = (System.currentTimeMillis() - start) /1000;
+        double speed = docCount / time;
+
+        System.out.println("populated " + docCount + " documents in " + Math.round(time) + "s (" + Math.round(speed) + " doc/s)");
+
+    }
+
+    /**
+     * The i-th generated source document. Runners override it with documents their transform accepts.
+     */
+    protected Document testDocument(int i) {
+        Document doc = new Document();
+        doc.put("text", new BsonString("{ f1: \"some string\", f2: " + i + ", f3: \"another string\" }"));
+        return doc;
+    }
+
+
+    /**
+     * Counts and samples a source document the transform could not map, and drops it.
+     */
+    protected Mono<Document> skipBadDocument(Document doc, Exception e) {
+        badDocuments.record(doc, e);
+        return Mono.empty();
+    }
+
+    /**
+     * Drops natural key duplicates from the batch, if a {@link Deduplicator} is configured.
+     */
+    protected Mono<List<Document>> dedup(List<Document> batch) {
+        return deduplicator == null ? Mono.just(batch) : Mono.just(deduplicator.filter(batch));
+    }
+
+    /**
+     * Joins reference fields into a batch of transformed documents, if an {@link Enricher} is configured.
+     */
+    protected Mono<List<Document>> enrich(List<Document> batch) {
+        return enricher == null ? Mono.just(batch) : enricher.enrich(batch);
+    }
+
+    /**
+     * Drops documents with dangling references from the batch, if a {@link ReferenceCheck} is configured.
+     */
+    protected Mono<List<Document>> checkReferences(List<Document> batch) {
+        return referenceCheck == null ? Mono.just(batch) : referenceCheck.check(batch);
+    }
+
+    /**
+     * Inserts one batch into the target, counting the documents once they are acknowledged. Failed
+     * documents are retried or rejected by the {@link BatchLoader}. A {@link DeltaSync} upserts instead.
+     */
+    protected Mono<Success> load(MongoCollection<Document> target, List<Document> batch) {
+        if (batch.isEmpty())
+            return Mono.empty();
+
+        return write(target, batch, delta == null ? batchLoader.insert(target, batch) : delta.upsert(target, batch, batchLoader));
+    }
+
+    /**
+     * Replaces loaded documents by the later duplicates the {@link Deduplicator} found, through the same
+     * throttle, lease fence and {@link BatchLoader} handling as the inserts.
+     */
+    Mono<Success> replace(MongoCollection<Document> target, List<Document> batch, Function<Document, Bson> keyFilter,
+                          AtomicLong replaced) {
+        if (batch.isEmpty())
+            return Mono.empty();
+
+        return write(target, batch, batchLoader.replace(target, batch, keyFilter, replaced));
+    }
+
+    private Mono<Success> write(MongoCollection<Document> target, List<Document> batch, Mono<Success> write) {
+        Mono<Void> wait = throttle == null ? Mono.empty() : throttle.write(batch, target.getCodecRegistry().get(Document.class));
+
+        Mono<Success> fenced = fence == null ? write : fence.flatMap(held -> held ? write : Mono.empty());
+
+        inFlight.addAndGet(batch.size());
+        return wait.then(profiler == null ? fenced : profiler.insert(batch.size(), fenced))
+                .doFinally(signal -> inFlight.addAndGet(-batch.size()));
+    }
+
+    /**
+     * Compares counts and hashes of the transformed source against the target, range by range.
+     */
+    public boolean verify() {
+        return new Verifier(this).verify();
+    }
+
+    /**
+     * Extract, transform and load of the source documents matching the query. A shutdown cancels the
+     * cursor, the documents already extracted are still loaded.
+     */
+    protected Flux<Success> pipeline(Bson query, MongoCollection<Document> bulkTgt) {
+        if (ordered != null)
+            return ordered.pipeline(this, query, bulkTgt, workQueue == null);
+        return pipeline(extract(query).takeUntilOther(shutdown.signal()), bulkTgt);
+    }
+
+    /**
+     * Transform and load of source documents extracted elsewhere, e.g. by a {@link FanOut} shared scan.
+     */
+    Flux<Success> pipeline(Flux<Document> extracted, MongoCollection<Document> bulkTgt) {
+        return extracted
+                .flatMap(this::throttledTransform, concurrency)                    // Transform
+                .buffer(batchSize)                                                 // Batch docs
+                .doOnNext(this::batched)
+                .flatMap(batch -> dedup(batch)                                     // Dedup
+                        .flatMap(this::enrich)                                     // Enrich
+                        .flatMap(this::checkReferences)                            // Validate
+                        .flatMap(valid -> load(bulkTgt, valid)), concurrency);     // Load docs
+    }
+
+    /**
+     * Transform and load keeping the extracted order, for the {@link OrderedLoad}: transforms are merged
+     * back in order and each batch is loaded once the previous one is acknowledged.
+     */
+    Flux<Success> orderedPipeline(Flux<Document> extracted, MongoCollection<Document> bulkTgt) {
+        return extracted
+                .flatMapSequential(this::throttledTransform, concurrency)          // Transform
+                .buffer(batchSize)                                                 // Batch docs
+                .doOnNext(this::batched)
+                .concatMap(batch -> dedup(batch)                                   // Dedup
+                        .flatMap(this::enrich)                                     // Enrich
+                        .flatMap(this::checkReferences)                            // Validate
+                        .flatMap(valid -> load(bulkTgt, valid)));                  // Load docs
+    }
+
+    /**
+     * Source documents matching the query, read ahead by the {@link Prefetch} if one is configured.
+     */
+    protected Flux<Document> extract(Bson query) {
+        return extract(query, projection());
+    }
+
+    Flux<Document> extract(Bson query, Bson projection) {
+        if (prefetch != null)
+            return prefetch.find(src, query, projection, sourceKey(), batchSize);
+        return Flux.from(src.find(query).projection(projection).batchSize(batchSize));
+    }
+
+    /**
+     * The transform as the pipeline runs it, behind the {@link Throttle} and sampled by the {@link AllocationProfiler}.
+     */
+    Mono<Document> throttledTransform(Document doc) {
+        return throttle == null ? profiledTransform(doc) : throttle.read().then(Mono.defer(() -> profiledTransform(doc)));
+    }
+
+    private Mono<Document> profiledTransform(Document doc) {
+        return profiler == null ? transform(doc) : profiler.transform(doc, this::transform);
+    }
+
+    void batched(List<Document> batch) {
+        if (profiler != null)
+            profiler.batched(batch.size());
+    }
+
+    void finishDedup(MongoCollection<Document> bulkTgt) {
+        if (deduplicator != null) {
+            deduplicator.finish(
+                    batch -> enrich(batch)
+                            .flatMap(this::checkReferences)
+                            .flatMap(valid -> load(bulkTgt, valid)),
+                    (batch, keyFilter, replaced) -> enrich(batch)
+                            .flatMap(this::checkReferences)
+                            .flatMap(valid -> replace(bulkTgt, valid, keyFilter, replaced)),
+                    batchSize);
+        }
+    }
+
+    /**
+     * Loads one work unit, returning the documents loaded or -1 if the lease was lost first. A reclaimed
+     * unit's target range is cleared first since its previous owner may have loaded part of it. Batches
+     * are only written while the lease is held, and the first batch found without it stops the unit.
+     */
+    private long loadRange(KeyRange range, boolean reclaimed, Mono<Boolean> leaseLost, Mono<Boolean> leaseHeld,
+                           MongoCollection<Document> bulkTgt, long docCount) {
+
+        if (reclaimed) {
+            Mono.from(tgt.deleteMany(range.target(targetKey(), uuidKey()))).block();
+            // the unit may have been reclaimed again while the range was cleared
+            if (!leaseHeld.block())
+                return -1;
+        }
+
+        Bson query = filter == null ? range.source(sourceKey()) : Filters.and(filter, range.source(sourceKey()));
+        long before = loaded.get();
+        AtomicBoolean lost = new AtomicBoolean();
+        MonoProcessor<Boolean> unfenced = MonoProcessor.create();
+
+        fence = leaseHeld.doOnNext(held -> {
+            if (!held && lost.compareAndSet(false, true))
+                unfenced.onNext(true);
+        });
+        batchLoader.fence(fence);
+        try {
+            // dedup is exact per unit when the natural key includes the key the units are split on
+            if (deduplicator != null) {
+                deduplicator.start(docCount / range.partitions + 1);
+            }
+
+            pipeline(query, bulkTgt)
+                    .takeUntilOther(Flux.merge(leaseLost, unfenced).doOnNext(v -> lost.set(true)))
+                    .blockLast();
+
+            if (lost.get() || shutdown.stopping())
+                return -1;
+
+            finishDedup(bulkTgt);
+            return lost.get() ? -1 : loaded.get() - before;
+        } finally {
+            fence = null;
+            batchLoader.fence(null);
+        }
+    }
+
+    /**
+     * Works through the units of a {@link WorkQueue} seeded by a coordinator process, leaving the target
+     * durability and verification to the coordinator.
+     */
+    private void runWorker() {
+        shutdown.install();
+        try {
+            work();
+        } finally {
+            shutdown.finished();
+        }
+    }
+
+    private void work() {
+        MongoCollection<Document> bulkTgt = loadMode.bulkTarget(tgt);
+        loaded.set(0);
+        badDocuments.reset();
+
+        if (enricher != null) {
+            enricher.preload();
+        }
+        if (referenceCheck != null) {
+            referenceCheck.load();
+        }
+
+        long docCount = Mono.from(src.estimatedDocumentCount()).block();
+        deduplicator = Deduplicator.fromProperties(naturalKey(), tgt.getCodecRegistry().get(Document.class));
+
+        if (throttle != null) {
+            throttle.start();
+        }
+        if (profiler != null) {
+            profiler.start();
+        }
+
+        try {
+            workQueue.work((range, reclaimed, leaseLost, leaseHeld) ->
+                    loadRange(range, reclaimed, leaseLost, leaseHeld, bulkTgt, docCount));
+        } finally {
+            if (throttle != null) {
+                throttle.stop();
+            }
+            if (profiler != null) {
+                profiler.stop();
+            }
+        }
+
+        if (referenceCheck != null) {
+            referenceCheck.printSummary();
+        }
+        batchLoader.printSummary();
+        badDocuments.printSummary();
+    }
+
+    public void run() {
+        DryRun dryRun = DryRun.fromProperties(this);
+        if (dryRun != null) {
+            shutdown.install();
+            try {
+                dryRun.run();
+            } finally {
+                shutdown.finished();
+            }
+            return;
+        }
+
+        if (workQueue != null && !workQueue.isCoordinator()) {
+            runWorker();
+            return;
+        }
+
+        shutdown.install();
+        try {
+            runCoordinator();
+        } finally {
+            shutdown.finished();
+        }
+    }
+
+    private boolean blockingEngine() {
+        if ("reactive".equals(engine))
+            return false;
+        if (!"blocking".equals(engine)) {
+            throw new IllegalArgumentException("etl.engine must be reactive or blocking (" + engine + ")");
+        }
+        if (workQueue != null || delta != null || ordered != null) {
+            throw new IllegalArgumentException("the blocking engine does not support etl.queue, etl.delta or etl.ordered");
+        }
+        return true;
+    }
+
+    private void runCoordinator() {
+        delta = DeltaSync.fromProperties(client, tgt.getNamespace().getFullName(), updatedField(), naturalKey());
+
+        Bson query = filter == null ? new Document() : filter;
+        if (delta != null) {
+            if (workQueue != null) {
+                throw new IllegalArgumentException("etl.delta cannot be combined with etl.queue");
+            }
+
+            Bson window = delta.window(src);
+            if (window == null) {
+                System.out.println("no change times in the source");
+                return;
+            }
+            delta.ensureKeyIndex(tgt);
+            query = filter == null ? window : Filters.and(filter, window);
+        } else {
+            System.out.println("dropping tgt collection");
+            Mono.from(tgt.drop()).block();
+        }
+        batchLoader.reset();
+
+        WireStats wireBefore = BulkProfile.enabled() ? WireStats.snapshot(client) : null;
+        WireStats srcWireBefore = BulkProfile.enabled() && separateSource ? WireStats.snapshot(srcClient) : null;
+
+        // upserts are counted as they are acknowledged, so a delta is not loaded with relaxed writes
+        MongoCollection<Document> bulkTgt = delta == null ? loadMode.bulkTarget(tgt) : tgt;
+        loaded.set(0);
+        badDocuments.reset();
+
+        if (enricher != null) {
+            enricher.preload();
+        }
+        if (referenceCheck != null) {
+            referenceCheck.resetReport();
+            referenceCheck.load();
+        }
+
+        long start = System.currentTimeMillis();
+        long docCount = filter == null && delta == null
+                ? Mono.from(src.estimatedDocumentCount()).block()
+                : Mono.from(src.countDocuments(query)).block();
+
+        deduplicator = Deduplicator.fromProperties(naturalKey(), tgt.getCodecRegistry().get(Document.class));
+
+        if (throttle != null) {
+            throttle.start();
+        }
+        if (profiler != null) {
+            profiler.start();
+        }
+
+        try {
+            if (workQueue != null) {
+                workQueue.seed();
+                workQueue.work((range, reclaimed, leaseLost, leaseHeld) ->
+                        loadRange(range, reclaimed, leaseLost, leaseHeld, bulkTgt, docCount));
+                if (!shutdown.stopping())
+                    loaded.set(workQueue.loaded());
+            } else {
+                if (deduplicator != null) {
+                    deduplicator.start(docCount);
+                }
+
+                if (blockingEngine()) {
+                    BlockingEngine.fromProperties(this, srcUri, tgtUri).load(filter, bulkTgt.getWriteConcern());
+                } else {
+                    pipeline(query, bulkTgt)
+                            .doOnComplete(() -> System.out.println("complete!"))
+                            .blockLast();
+                }
+
+                finishDedup(bulkTgt);
+            }
+        } finally {
+            if (throttle != null) {
+                throttle.stop();
+            }
+            if (profiler != null) {
+                profiler.stop();
+            }
+        }
+
+        double time = (System.currentTimeMillis() - start) /1000;
+        double speed = docCount / time;
+
+        System.out.println(
+                "transformed " + docCount +
+                        " documents in " + Math.round(time) +
+                        "s (" + Math.round(speed) + " doc/s)");
+
+        if (referenceCheck != null) {
+            referenceCheck.printSummary();
+        }
+        batchLoader.printSummary();
+        badDocuments.printSummary();
+
+        if (shutdown.stopping()) {
+            // the durability barrier can outlast the drain time, relaxed writes may not be majority committed yet
+            System.out.println("stopped early, loaded " + loaded.get() + " documents");
+            return;
+        }
+
+        if (delta != null) {
+            // every upsert was acknowledged or the pipeline would have failed
+            delta.commit(loaded.get());
+        } else {
+            loadMode.awaitDurable(tgt, loaded.get());
+        }
+
+        if (Boolean.getBoolean("etl.verify")) {
+            verify();
+        }
+
+        RangeProbe probe = RangeProbe.fromProperties();
+        if (probe != null) {
+            probe.run(tgt, targetKey(), uuidKey());
+        }
+
+        if (wireBefore != null) {
+            WireStats wireAfter = WireStats.snapshot(client);
+            if (wireAfter != null) {
+                System.out.println("target " + wireAfter.minus(wireBefore));
+            }
+        }
+        if (srcWireBefore != null) {
+            WireStats srcWireAfter = WireStats.snapshot(srcClient);
+            if (srcWireAfter != null) {
+                System.out.println("source " + srcWireAfter.minus(srcWireBefore));
+            }
+        }
+
+    }
+
+}
@@ -1,33 +1,16 @@
 package org.mongodb.etl;
 
-import com.mongodb.ConnectionString;
-import com.mongodb.client.model.InsertManyOptions;
-import com.mongodb.reactivestreams.client.MongoClient;
-import com.mongodb.reactivestreams.client.MongoClients;
-import com.mongodb.reactivestreams.client.MongoCollection;
-import com.mongodb.MongoClientSettings;
 import org.bson.Document;
-import org.bson.BsonString;
-import org.bson.UuidRepresentation;
-import org.bson.codecs.UuidCodec;
-import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 import java.text.SimpleDateFormat;
 import java.util.*;
-import java.util.function.Function;
 import java.util.stream.Collectors;
 
-import static org.bson.codecs.configuration.CodecRegistries.fromCodecs;
-import static org.bson.codecs.configuration.CodecRegistries.fromRegistries;
+public class RunnerGroup extends Runner {
 
-public class RunnerGroup {
-
-    private MongoClient client;
-    private int batchSize = 20000;
-    private MongoCollection<Document> src;
-    private MongoCollection<Document> tgt;
-    private InsertManyOptions options;
+    static final List<String> FIELDS = Arrays.asList(
+            "id", "contextid", "contexttype", "name", "parentid", "permissions", "system", "type", "createdat", "updatedat");
 
     public static void main(String[] args) {
 
@@ -52,96 +35,44 @@ public class RunnerGroup {
     }
 
     public RunnerGroup(String mongoUri, String srcNs, String tgtNs) {
-
-        String[] srcSplit = srcNs.split("\\.");
-        String[] tgtSplit = tgtNs.split("\\.");
-
-        if (srcSplit.length != 2) {
-            throw new IllegalArgumentException("src namespace is not valid (" + srcNs + ")");
-        }
-        if (tgtSplit.length != 2) {
-            throw new IllegalArgumentException("tgt namespace is not valid (" + tgtNs + ")");
-        }
-
-        MongoClientSettings mcs = MongoClientSettings.builder()
-                .codecRegistry(fromRegistries(
-                        fromCodecs(new UuidCodec(UuidRepresentation.STANDARD)),
-                        MongoClientSettings.getDefaultCodecRegistry()))
-                .applyConnectionString(new ConnectionString(mongoUri))
-                .build();
-
-
-        client = MongoClients.create(mcs);
-
-        src = client.getDatabase(srcSplit[0]).getCollection(srcSplit[1], Document.class);
-        tgt = client.getDatabase(tgtSplit[0]).getCollection(tgtSplit[1], Document.class);
-
-        options = new InsertManyOptions();
-        options.ordered(false);
-
+        super(mongoUri, srcNs, tgtNs);
     }
 
-    public void populateTestData(int docCount) {
-
-        System.out.println("dropping src collection");
-        Mono.from(src.drop()).block();
-
-        long start = System.currentTimeMillis();
-
-        Flux<Document> docFlux = Flux.generate(
-                () -> 1,
-                (state, sink) -> {
-                    Document doc = new Document();
-                    doc.put("text", new BsonString("{ f1: \"some string\", f2: " + state + ", f3: \"another string\" }"));
-                    sink.next(doc);
-                    if (state == docCount)
-                        sink.complete();
-                    return state+1;
-                }
-        );
-
-        docFlux
-                .buffer(batchSize)
-                .flatMap(batch -> src.insertMany(batch, options), 3)
-                .blockLast();
-
-        double time = (System.currentTimeMillis() - start) /1000;
-        double speed = docCount / time;
-
-        System.out.println("populated " + docCount + " documents in " + Math.round(time) + "s (" + Math.round(speed) + " doc/s)");
-
+    @Override
+    protected List<String> fields() {
+        return FIELDS;
     }
 
+    @Override
+    protected List<String> naturalKey() {
+        return Collections.singletonList("_id");
+    }
 
-    public void run() {
-        System.out.println("dropping tgt collection");
-        Mono.from(tgt.drop()).block();
-
-        long start = System.currentTimeMillis();
-        long docCount = Mono.from(src.estimatedDocumentCount()).block();
-
-        Flux.from(src.find().batchSize(batchSize))                                 // Extract
-                .flatMap(transform, 8)                                 // Transform
-                .buffer(batchSize)                                                 // Batch docs
-                .flatMap(batch -> tgt.insertMany(batch, options), 8)   // Load docs
-//                .doOnNext(System.out::println)
-                .doOnComplete(() -> System.out.println("complete!"))
-                .blockLast();
+    @Override
+    protected String sourceKey() {
+        return "id";
+    }
 
-        double time = (System.currentTimeMillis() - start) /1000;
-        double speed = docCount / time;
+    @Override
+    protected String targetKey() {
+        return "_id";
+    }
 
-        System.out.println(
-                "transformed " + docCount +
-                        " documents in " + Math.round(time) +
-                        "s (" + Math.round(speed) + " doc/s)");
+    @Override
+    protected boolean uuidKey() {
+        return true;
+    }
 
+    @Override
+    protected Set<String> unverifiedFields() {
+        return Collections.emptySet();
     }
 
     /**
      * Takes an incoming document and parses the JSON in the "text" field into a Document which is then returned.
      */
-    Function<Document, Mono<Document>> transform = doc -> {
+    @Override
+    protected Mono<Document> transform(Document doc) {
 
         Date createdatISO = null;
         Date updatedatISO = null;
@@ -215,7 +146,7 @@ public class RunnerGroup {
 
 
             // Hydrate
-            Document newDoc = new Document("_id", UUID.fromString(uuid));
+            Document newDoc = new Document("_id", Uuids.toStandardBinary(uuid));
 
             if ( contextid != null )
                 newDoc.append("contextid", contextid);
@@ -251,12 +182,10 @@ public class RunnerGroup {
         }
         catch(Exception e)
         {
-            System.out.println( doc.toJson() );
-            e.printStackTrace();
+            return skipBadDocument(doc, e);
         }
-        return null;
 
-    };
+    }
 
 
 }
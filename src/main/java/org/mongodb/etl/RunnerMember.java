@@ -1,35 +1,19 @@
 package org.mongodb.etl;
 
-import com.mongodb.ConnectionString;
-import com.mongodb.client.model.InsertManyOptions;
-import com.mongodb.reactivestreams.client.MongoClient;
-import com.mongodb.reactivestreams.client.MongoClients;
-import com.mongodb.reactivestreams.client.MongoCollection;
-import com.mongodb.MongoClientSettings;
 import org.bson.Document;
-import org.bson.BsonString;
-import org.bson.UuidRepresentation;
-import org.bson.codecs.UuidCodec;
-import org.bson.types.Binary;
-import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 import java.text.SimpleDateFormat;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.List;
 import java.util.TimeZone;
 import java.util.UUID;
-import java.util.function.Function;
 
-import static org.bson.codecs.configuration.CodecRegistries.fromCodecs;
-import static org.bson.codecs.configuration.CodecRegistries.fromRegistries;
+public class RunnerMember extends Runner {
 
-public class RunnerMember {
-
-    private MongoClient client;
-    private int batchSize = 20000;
-    private MongoCollection<Document> src;
-    private MongoCollection<Document> tgt;
-    private InsertManyOptions options;
+    static final List<String> FIELDS = Arrays.asList(
+            "groupid", "memberid", "membertype", "system", "createdat", "updatedat");
 
     public static void main(String[] args) {
 
@@ -55,118 +39,52 @@ public class RunnerMember {
 
 
     public RunnerMember(String mongoUri, String srcNs, String tgtNs) {
-
-        String[] srcSplit = srcNs.split("\\.");
-        String[] tgtSplit = tgtNs.split("\\.");
-
-        if (srcSplit.length != 2) {
-            throw new IllegalArgumentException("src namespace is not valid (" + srcNs + ")");
-        }
-        if (tgtSplit.length != 2) {
-            throw new IllegalArgumentException("tgt namespace is not valid (" + tgtNs + ")");
-        }
-
-        MongoClientSettings mcs = MongoClientSettings.builder()
-                .codecRegistry(fromRegistries(
-                        fromCodecs(new UuidCodec(UuidRepresentation.STANDARD)),
-                        MongoClientSettings.getDefaultCodecRegistry()))
-                .applyConnectionString(new ConnectionString(mongoUri))
-                .build();
-
-
-        client = MongoClients.create(mcs);
-
-        src = client.getDatabase(srcSplit[0]).getCollection(srcSplit[1], Document.class);
-        tgt = client.getDatabase(tgtSplit[0]).getCollection(tgtSplit[1], Document.class);
-
-        options = new InsertManyOptions();
-        options.ordered(false);
-
+        super(mongoUri, srcNs, tgtNs);
     }
 
-    public void populateTestData(int docCount) {
-
-        System.out.println("dropping src collection");
-        Mono.from(src.drop()).block();
-
-        long start = System.currentTimeMillis();
-
-        Flux<Document> docFlux = Flux.generate(
-                () -> 1,
-                (state, sink) -> {
-                    Document doc = new Document();
-                    doc.put("text", new BsonString("{ f1: \"some string\", f2: " + state + ", f3: \"another string\" }"));
-                    sink.next(doc);
-                    if (state == docCount)
-                        sink.complete();
-                    return state+1;
-                }
-        );
-
-        docFlux
-            .buffer(batchSize)
-            .flatMap(batch -> src.insertMany(batch, options), 3)
-            .blockLast();
-
-        double time = (System.currentTimeMillis() - start) /1000;
-        double speed = docCount / time;
-
-        System.out.println("populated " + docCount + " documents in " + Math.round(time) + "s (" + Math.round(speed) + " doc/s)");
-
+    @Override
+    protected List<String> fields() {
+        return FIELDS;
     }
 
+    @Override
+    protected List<String> naturalKey() {
+        return Arrays.asList("groupid", "memberid");
+    }
 
-    public void run() {
-        System.out.println("dropping tgt collection");
-        Mono.from(tgt.drop()).block();
-
-        long start = System.currentTimeMillis();
-        long docCount = Mono.from(src.estimatedDocumentCount()).block();
-
-        Flux.from(src.find().batchSize(batchSize))                                 // Extract
-                .flatMap(transform, 8)                                 // Transform
-                .buffer(batchSize)                                                 // Batch docs
-                .flatMap(batch -> tgt.insertMany(batch, options), 8)   // Load docs
-//                .doOnNext(System.out::println)
-                .doOnComplete(() -> System.out.println("complete!"))
-                .blockLast();
-
-        double time = (System.currentTimeMillis() - start) /1000;
-        double speed = docCount / time;
+    @Override
+    protected String sourceKey() {
+        return "groupid";
+    }
 
-        System.out.println(
-                    "transformed " + docCount +
-                            " documents in " + Math.round(time) +
-                            "s (" + Math.round(speed) + " doc/s)");
+    @Override
+    protected String targetKey() {
+        return "groupid";
+    }
 
+    @Override
+    protected boolean uuidKey() {
+        return true;
     }
 
     /**
-     * Convert a UUID object to a Binary with a subtype 0x04
+     * A member row as exported from Cassandra, ten members per group.
      */
-    public static Binary toStandardBinaryUUID(java.util.UUID uuid) {
-        long msb = uuid.getMostSignificantBits();
-        long lsb = uuid.getLeastSignificantBits();
-
-        byte[] uuidBytes = new byte[16];
-
-        for (int i = 15; i >= 8; i--) {
-            uuidBytes[i] = (byte) (lsb & 0xFFL);
-            lsb >>= 8;
-        }
-
-        for (int i = 7; i >= 0; i--) {
-            uuidBytes[i] = (byte) (msb & 0xFFL);
-            msb >>= 8;
-        }
-
-        return new Binary((byte) 0x04, uuidBytes);
+    @Override
+    protected Document testDocument(int i) {
+        return new Document("groupid", UUID.nameUUIDFromBytes(("group" + i / 10).getBytes()).toString())
+                .append("memberid", "member" + i)
+                .append("membertype", "user")
+                .append("system", "test")
+                .append("createdat", "2019-06-01 12:00:00")
+                .append("updatedat", "2019-06-02 12:00:00");
     }
 
     /**
      * Takes an incoming document and parses the JSON in the "text" field into a Document which is then returned.
      */
-    Function<Document, Mono<Document>> transform = doc -> {
+    @Override
+    protected Mono<Document> transform(Document doc) {
 
         Date createdatISO = null;
         Date updatedatISO = null;
@@ -183,7 +101,7 @@ public class RunnerMember {
         }
         catch(Exception e)
         {
-            e.printStackTrace();
+            badDocuments.record(doc, e);
         }
 
         String groupid = doc.getString("groupid");
@@ -217,7 +135,7 @@ public class RunnerMember {
         if ( membertype != null )
             newDoc.append("membertype", membertype);
 
-        newDoc.append("groupid",   UUID.fromString(groupid));
+        newDoc.append("groupid",   Uuids.toStandardBinary(groupid));
 
         if ( createdatISO != null )
             newDoc.append("createdat", createdatISO);
@@ -226,6 +144,6 @@ public class RunnerMember {
             newDoc.append("updatedat", updatedatISO);
 
         return Mono.just(newDoc);
-    };
+    }
 
 }
@@ -1,32 +1,15 @@
 package org.mongodb.etl;
 
-import com.mongodb.ConnectionString;
-import com.mongodb.MongoClientSettings;
-import com.mongodb.client.model.InsertManyOptions;
-import com.mongodb.reactivestreams.client.MongoClient;
-import com.mongodb.reactivestreams.client.MongoClients;
-import com.mongodb.reactivestreams.client.MongoCollection;
-import org.bson.BsonString;
 import org.bson.Document;
-import org.bson.UuidRepresentation;
-import org.bson.codecs.UuidCodec;
-import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 import java.text.SimpleDateFormat;
 import java.util.*;
-import java.util.function.Function;
 
-import static org.bson.codecs.configuration.CodecRegistries.fromCodecs;
-import static org.bson.codecs.configuration.CodecRegistries.fromRegistries;
+public class RunnerOrgUserAssociation extends Runner {
 
-public class RunnerOrgUserAssociation {
-
-    private MongoClient client;
-    private int batchSize = 20000;
-    private MongoCollection<Document> src;
-    private MongoCollection<Document> tgt;
-    private InsertManyOptions options;
+    static final List<String> FIELDS = Arrays.asList(
+            "id", "associd", "assocblob", "authgroupid", "authgrouptype", "status", "createdate", "updatedate");
 
     public static void main(String[] args) {
 
@@ -51,96 +34,34 @@ public class RunnerOrgUserAssociation {
     }
 
     public RunnerOrgUserAssociation(String mongoUri, String srcNs, String tgtNs) {
-
-        String[] srcSplit = srcNs.split("\\.");
-        String[] tgtSplit = tgtNs.split("\\.");
-
-        if (srcSplit.length != 2) {
-            throw new IllegalArgumentException("src namespace is not valid (" + srcNs + ")");
-        }
-        if (tgtSplit.length != 2) {
-            throw new IllegalArgumentException("tgt namespace is not valid (" + tgtNs + ")");
-        }
-
-        MongoClientSettings mcs = MongoClientSettings.builder()
-                .codecRegistry(fromRegistries(
-                        fromCodecs(new UuidCodec(UuidRepresentation.STANDARD)),
-                        MongoClientSettings.getDefaultCodecRegistry()))
-                .applyConnectionString(new ConnectionString(mongoUri))
-                .build();
-
-
-        client = MongoClients.create(mcs);
-
-        src = client.getDatabase(srcSplit[0]).getCollection(srcSplit[1], Document.class);
-        tgt = client.getDatabase(tgtSplit[0]).getCollection(tgtSplit[1], Document.class);
-
-        options = new InsertManyOptions();
-        options.ordered(false);
-
+        super(mongoUri, srcNs, tgtNs);
     }
 
-    public void populateTestData(int docCount) {
-
-        System.out.println("dropping src collection");
-        Mono.from(src.drop()).block();
-
-        long start = System.currentTimeMillis();
-
-        Flux<Document> docFlux = Flux.generate(
-                () -> 1,
-                (state, sink) -> {
-                    Document doc = new Document();
-                    doc.put("text", new BsonString("{ f1: \"some string\", f2: " + state + ", f3: \"another string\" }"));
-                    sink.next(doc);
-                    if (state == docCount)
-                        sink.complete();
-                    return state+1;
-                }
-        );
-
-        docFlux
-                .buffer(batchSize)
-                .flatMap(batch -> src.insertMany(batch, options), 3)
-                .blockLast();
-
-        double time = (System.currentTimeMillis() - start) /1000;
-        double speed = docCount / time;
-
-        System.out.println("populated " + docCount + " documents in " + Math.round(time) + "s (" + Math.round(speed) + " doc/s)");
-
+    @Override
+    protected List<String> fields() {
+        return FIELDS;
     }
 
+    @Override
+    protected String updatedField() {
+        return "updatedate";
+    }
 
-    public void run() {
-        System.out.println("dropping tgt collection");
-        Mono.from(tgt.drop()).block();
-
-        long start = System.currentTimeMillis();
-        long docCount = Mono.from(src.estimatedDocumentCount()).block();
-
-        Flux.from(src.find().batchSize(batchSize))                                 // Extract
-                .flatMap(transform, 8)                                 // Transform
-                .buffer(batchSize)                                                 // Batch docs
-                .flatMap(batch -> tgt.insertMany(batch, options), 8)   // Load docs
-//                .doOnNext(System.out::println)
-                .doOnComplete(() -> System.out.println("complete!"))
-                .blockLast();
-
-        double time = (System.currentTimeMillis() - start) /1000;
-        double speed = docCount / time;
-
-        System.out.println(
-                "transformed " + docCount +
-                        " documents in " + Math.round(time) +
-                        "s (" + Math.round(speed) + " doc/s)");
+    @Override
+    protected String sourceKey() {
+        return "id";
+    }
 
+    @Override
+    protected String targetKey() {
+        return "organizationid";
     }
 
     /**
      * Takes an incoming document and parses the JSON in the "text" field into a Document which is then returned.
      */
-    Function<Document, Mono<Document>> transform = doc -> {
+    @Override
+    protected Mono<Document> transform(Document doc) {
 
         Date createdateISO = null;
         Date updatedateISO = null;
@@ -204,12 +125,10 @@ public class RunnerOrgUserAssociation {
         }
         catch(Exception e)
         {
-            System.out.println( doc.toJson() );
-            e.printStackTrace();
+            return skipBadDocument(doc, e);
         }
-        return null;
 
-    };
+    }
 
 
 }
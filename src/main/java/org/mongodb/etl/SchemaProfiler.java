@@ -0,0 +1,221 @@
+package org.mongodb.etl;
+
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Filters;
+import com.mongodb.reactivestreams.client.MongoClient;
+import com.mongodb.reactivestreams.client.MongoClients;
+import com.mongodb.reactivestreams.client.MongoCollection;
+import org.bson.BsonBinaryReader;
+import org.bson.BsonType;
+import org.bson.ByteBuf;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.conversions.Bson;
+import org.bson.io.BsonInput;
+import reactor.core.publisher.Flux;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Profiles the top level fields of a source collection before a migration is run against it.
+ *
+ * For every field it reports how often it is present, its BSON type histogram (contextid as string and
+ * int32, dates that are strings), null and empty rates, average and maximum value size, and a
+ * HyperLogLog estimate of the number of distinct values (4KB per field, about 1.6% error). Documents are read as raw BSON and walked
+ * without decoding; value sizes and hashes come straight from the bytes. A full scan can be split into
+ * 16 key ranges read in parallel, each profiled separately and merged at the end.
+ *
+ * Args: mongoUri, source namespace
+ *
+ * System properties:
+ *   etl.schema.sample - profile a $sample of this many documents instead of a full scan
+ *   etl.schema.key    - string key field to split a full scan into 16 parallel {@link KeyRange}s
+ *   etl.filter        - JSON query restricting the documents profiled
+ *   etl.concurrency   - ranges read concurrently (default 8)
+ */
+public class SchemaProfiler {
+
+    private static final int HLL_PRECISION = 12;
+    private static final long MESSAGE_BYTES = 48_000_000L;
+
+    private final MongoCollection<RawBsonDocument> src;
+    private final Bson filter;
+
+    public static void main(String[] args) {
+        if (args.length != 2) {
+            throw new IllegalArgumentException("expected 2 arguments: mongoUri <src namespace>");
+        }
+
+        String filterJson = System.getProperty("etl.filter");
+        Bson filter = filterJson == null || filterJson.isEmpty() ? new Document() : Document.parse(filterJson);
+        int concurrency = Integer.getInteger("etl.concurrency", 8);
+
+        try (MongoClient client = MongoClients.create(Runner.clientSettings(args[0], concurrency + 2))) {
+            String[] split = args[1].split("\\.");
+            if (split.length != 2) {
+                throw new IllegalArgumentException("src namespace is not valid (" + args[1] + ")");
+            }
+
+            SchemaProfiler profiler = new SchemaProfiler(
+                    client.getDatabase(split[0]).getCollection(split[1], RawBsonDocument.class), filter);
+
+            long start = System.currentTimeMillis();
+            int sample = Integer.getInteger("etl.schema.sample", 0);
+            String key = System.getProperty("etl.schema.key");
+
+            Profile profile = sample > 0
+                    ? profiler.sample(sample)
+                    : profiler.scan(key, concurrency);
+
+            System.out.println("profiled " + profile.docs + " documents of " + args[1] +
+                    (sample > 0 ? " ($sample)" : key != null ? " (16 ranges on " + key + ")" : "") +
+                    " in " + Math.round((System.currentTimeMillis() - start) / 1000.0) + "s");
+            profile.print();
+        }
+    }
+
+    public SchemaProfiler(MongoCollection<RawBsonDocument> src, Bson filter) {
+        this.src = src;
+        this.filter = filter;
+    }
+
+    /**
+     * Profiles a random sample of the matching documents.
+     */
+    public Profile sample(int size) {
+        return Flux.from(src.aggregate(
+                Arrays.asList(Aggregates.match(filter), Aggregates.sample(size)), RawBsonDocument.class))
+                .reduce(new Profile(), Profile::add)
+                .block();
+    }
+
+    /**
+     * Profiles every matching document, in parallel key ranges if a key is given.
+     */
+    public Profile scan(String key, int concurrency) {
+        if (key == null) {
+            return Flux.from(src.find(filter))
+                    .reduce(new Profile(), Profile::add)
+                    .block();
+        }
+
+        return Flux.fromIterable(KeyRange.split(16))
+                .flatMap(range -> Flux.from(src.find(Filters.and(filter, range.source(key))))
+                        .reduce(new Profile(), Profile::add), concurrency)
+                .reduce(new Profile(), Profile::merge)
+                .block();
+    }
+
+    /**
+     * Field statistics of one or more profiled partitions.
+     */
+    public static final class Profile {
+
+        long docs;
+        long docBytes;
+        long maxDocBytes;
+        final Map<String, FieldProfile> fields = new TreeMap<>();
+
+        Profile add(RawBsonDocument doc) {
+            ByteBuf buffer = doc.getByteBuffer();
+            byte[] bytes = buffer.array();
+
+            docs++;
+            docBytes += buffer.remaining();
+            maxDocBytes = Math.max(maxDocBytes, buffer.remaining());
+
+            try (BsonBinaryReader reader = new BsonBinaryReader(buffer.asNIO())) {
+                BsonInput input = reader.getBsonInput();
+                reader.readStartDocument();
+                while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+                    String name = reader.readName();
+                    BsonType type = reader.getCurrentBsonType();
+                    int start = input.getPosition();
+                    reader.skipValue();
+                    fields.computeIfAbsent(name, n -> new FieldProfile())
+                            .add(type, bytes, start, input.getPosition() - start);
+                }
+                reader.readEndDocument();
+            }
+            return this;
+        }
+
+        Profile merge(Profile other) {
+            docs += other.docs;
+            docBytes += other.docBytes;
+            maxDocBytes = Math.max(maxDocBytes, other.maxDocBytes);
+            other.fields.forEach((name, field) -> fields.merge(name, field, FieldProfile::merge));
+            return this;
+        }
+
+        void print() {
+            if (docs == 0)
+                return;
+
+            long avg = docBytes / docs;
+            System.out.println("documents: avg " + avg + " bytes, max " + maxDocBytes + " bytes, ~" +
+                    MESSAGE_BYTES / Math.max(1, avg) + " per 48MB insertMany message");
+            System.out.println(String.format("%-16s %8s %7s %7s %8s %8s %10s  %s",
+                    "field", "present", "null", "empty", "avg B", "max B", "distinct~", "types"));
+
+            fields.forEach((name, field) -> System.out.println(String.format("%-16s %7.1f%% %6.1f%% %6.1f%% %8d %8d %10d  %s",
+                    name,
+                    100.0 * field.count / docs,
+                    100.0 * field.types[BsonType.NULL.ordinal()] / field.count,
+                    100.0 * field.empty / field.count,
+                    field.bytes / field.count,
+                    field.maxBytes,
+                    field.distinct.estimate(),
+                    field.describeTypes())));
+        }
+    }
+
+    static final class FieldProfile {
+
+        long count;
+        long empty;
+        long bytes;
+        long maxBytes;
+        final long[] types = new long[BsonType.values().length];
+        final HyperLogLog distinct = new HyperLogLog(HLL_PRECISION);
+
+        void add(BsonType type, byte[] raw, int offset, int length) {
+            count++;
+            types[type.ordinal()]++;
+            bytes += length;
+            maxBytes = Math.max(maxBytes, length);
+
+            // a zero length string, document or array is 5 bytes on the wire
+            if (length == 5 && (type == BsonType.STRING || type == BsonType.DOCUMENT || type == BsonType.ARRAY))
+                empty++;
+
+            distinct.add(HyperLogLog.hash(raw, offset, length, type.ordinal()));
+        }
+
+        FieldProfile merge(FieldProfile other) {
+            count += other.count;
+            empty += other.empty;
+            bytes += other.bytes;
+            maxBytes = Math.max(maxBytes, other.maxBytes);
+            for (int i = 0; i < types.length; i++)
+                types[i] += other.types[i];
+            distinct.merge(other.distinct);
+            return this;
+        }
+
+        String describeTypes() {
+            List<String> described = new ArrayList<>();
+            for (BsonType type : BsonType.values()) {
+                long n = types[type.ordinal()];
+                if (n > 0 && type != BsonType.NULL)
+                    described.add(type.name().toLowerCase() + " " + String.format("%.1f%%", 100.0 * n / count));
+            }
+            return String.join(", ", described);
+        }
+    }
+
+}
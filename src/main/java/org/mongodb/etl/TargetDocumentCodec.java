@@ -0,0 +1,139 @@
+package org.mongodb.etl;
+
+import org.bson.BsonBinary;
+import org.bson.BsonReader;
+import org.bson.BsonValue;
+import org.bson.BsonWriter;
+import org.bson.Document;
+import org.bson.codecs.Codec;
+import org.bson.codecs.CollectibleCodec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.DocumentCodec;
+import org.bson.codecs.EncoderContext;
+import org.bson.codecs.configuration.CodecProvider;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.types.Binary;
+import org.bson.types.ObjectId;
+
+import java.util.Date;
+import java.util.Map;
+
+/**
+ * Document codec for the target documents, writing the value types the transforms produce (strings,
+ * binary UUIDs, dates, numbers, string lists) straight to the writer.
+ *
+ * The generic DocumentCodec looks up a codec in the registry for every value, which is the bulk of the
+ * encoding cost for the flat documents built here. The output is byte for byte the same: _id first for
+ * a top level document, then the fields in insertion order, with any other value type encoded by its
+ * registry codec. Decoding and _id generation are left to the DocumentCodec.
+ */
+final class TargetDocumentCodec implements CollectibleCodec<Document> {
+
+    private static final String ID_FIELD_NAME = "_id";
+
+    private final CodecRegistry registry;
+    private final DocumentCodec documentCodec;
+
+    TargetDocumentCodec(CodecRegistry registry) {
+        this.registry = registry;
+        this.documentCodec = new DocumentCodec(registry);
+    }
+
+    /**
+     * Provides the codec for Document ahead of the default registry.
+     */
+    static CodecProvider provider() {
+        return new CodecProvider() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <T> Codec<T> get(Class<T> clazz, CodecRegistry registry) {
+                return clazz == Document.class ? (Codec<T>) new TargetDocumentCodec(registry) : null;
+            }
+        };
+    }
+
+    @Override
+    public void encode(BsonWriter writer, Document document, EncoderContext encoderContext) {
+        writeMap(writer, document, encoderContext);
+    }
+
+    @Override
+    public Document decode(BsonReader reader, DecoderContext decoderContext) {
+        return documentCodec.decode(reader, decoderContext);
+    }
+
+    @Override
+    public Class<Document> getEncoderClass() {
+        return Document.class;
+    }
+
+    @Override
+    public Document generateIdIfAbsentFromDocument(Document document) {
+        return documentCodec.generateIdIfAbsentFromDocument(document);
+    }
+
+    @Override
+    public boolean documentHasId(Document document) {
+        return documentCodec.documentHasId(document);
+    }
+
+    @Override
+    public BsonValue getDocumentId(Document document) {
+        return documentCodec.getDocumentId(document);
+    }
+
+    private void writeMap(BsonWriter writer, Map<String, Object> map, EncoderContext encoderContext) {
+        writer.writeStartDocument();
+
+        boolean collectible = encoderContext.isEncodingCollectibleDocument();
+        if (collectible && map.containsKey(ID_FIELD_NAME)) {
+            writer.writeName(ID_FIELD_NAME);
+            writeValue(writer, map.get(ID_FIELD_NAME), encoderContext);
+        }
+
+        for (Map.Entry<String, Object> entry : map.entrySet()) {
+            if (collectible && entry.getKey().equals(ID_FIELD_NAME))
+                continue;
+            writer.writeName(entry.getKey());
+            writeValue(writer, entry.getValue(), encoderContext);
+        }
+
+        writer.writeEndDocument();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void writeValue(BsonWriter writer, Object value, EncoderContext encoderContext) {
+        if (value == null) {
+            writer.writeNull();
+        } else if (value instanceof String) {
+            writer.writeString((String) value);
+        } else if (value instanceof Binary) {
+            Binary binary = (Binary) value;
+            writer.writeBinaryData(new BsonBinary(binary.getType(), binary.getData()));
+        } else if (value instanceof Date) {
+            writer.writeDateTime(((Date) value).getTime());
+        } else if (value instanceof Integer) {
+            writer.writeInt32((Integer) value);
+        } else if (value instanceof Long) {
+            writer.writeInt64((Long) value);
+        } else if (value instanceof Boolean) {
+            writer.writeBoolean((Boolean) value);
+        } else if (value instanceof Double) {
+            writer.writeDouble((Double) value);
+        } else if (value instanceof ObjectId) {
+            writer.writeObjectId((ObjectId) value);
+        } else if (value instanceof Iterable) {
+            EncoderContext child = encoderContext.getChildContext();
+            writer.writeStartArray();
+            for (Object item : (Iterable<Object>) value)
+                writeValue(writer, item, child);
+            writer.writeEndArray();
+        } else if (value instanceof Map) {
+            writeMap(writer, (Map<String, Object>) value, encoderContext.getChildContext());
+        } else {
+            Codec<Object> codec = (Codec<Object>) registry.get(value.getClass());
+            encoderContext.encodeWithChildContext(codec, writer, value);
+        }
+    }
+
+}
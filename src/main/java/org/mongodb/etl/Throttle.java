@@ -0,0 +1,301 @@
+package org.mongodb.etl;
+
+import com.mongodb.reactivestreams.client.MongoClient;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.Codec;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Date;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token bucket limits on source reads and target writes, so a migration can run next to live traffic.
+ *
+ * The limits can be changed while running by editing the control file, which is checked every second.
+ * With auto throttling the source and target are polled with serverStatus and replSetGetStatus: while
+ * queued operations or secondary lag are above their thresholds the affected side's rate is halved
+ * (starting from the measured rate if it was unlimited), and once they are back under it is raised by a
+ * quarter per interval until the limit no longer binds.
+ *
+ * System properties (also the keys of the control file, without the etl.rate. prefix):
+ *   etl.rate.readDocs              - source documents per second (default unlimited)
+ *   etl.rate.writeDocs             - target documents per second (default unlimited)
+ *   etl.rate.writeBytes            - target BSON bytes per second, sampled (default unlimited)
+ *   etl.rate.file                  - properties file to reload the limits from when it changes
+ *   etl.rate.auto                  - "true" to back off on server side pressure
+ *   etl.rate.auto.maxQueued        - queued readers + writers counted as pressure (default 50)
+ *   etl.rate.auto.maxLagSeconds    - secondary lag counted as pressure (default 10)
+ *   etl.rate.auto.intervalSeconds  - polling interval (default 5)
+ */
+class Throttle {
+
+    private static final int SAMPLE = 16;
+
+    private final TokenBucket readDocs = new TokenBucket(0);
+    private final TokenBucket writeDocs = new TokenBucket(0);
+    private final TokenBucket writeBytes = new TokenBucket(0);
+
+    private final MongoClient srcClient;
+    private final MongoClient tgtClient;
+    private final Path file;
+    private final boolean auto;
+    private final long maxQueued;
+    private final long maxLagMillis;
+    private final long intervalMillis;
+
+    private final AtomicLong read = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+
+    private volatile double readLimit;
+    private volatile double writeLimit;
+    private volatile double bytesLimit;
+    private double readAuto;
+    private double writeAuto;
+    private long fileModified;
+    private ScheduledExecutorService scheduler;
+
+    Throttle(MongoClient srcClient, MongoClient tgtClient, Properties limits, Path file,
+             boolean auto, long maxQueued, long maxLagMillis, long intervalMillis) {
+        this.srcClient = srcClient;
+        this.tgtClient = tgtClient;
+        this.file = file;
+        this.auto = auto;
+        this.maxQueued = maxQueued;
+        this.maxLagMillis = maxLagMillis;
+        this.intervalMillis = intervalMillis;
+        setLimits(limits);
+    }
+
+    /**
+     * Creates the throttle configured by system properties, or null if no limit is set.
+     */
+    static Throttle fromProperties(MongoClient srcClient, MongoClient tgtClient) {
+        Properties limits = new Properties();
+        for (String key : new String[]{"readDocs", "writeDocs", "writeBytes"}) {
+            String value = System.getProperty("etl.rate." + key);
+            if (value != null)
+                limits.setProperty(key, value);
+        }
+
+        String file = System.getProperty("etl.rate.file");
+        boolean auto = Boolean.getBoolean("etl.rate.auto");
+        if (limits.isEmpty() && file == null && !auto)
+            return null;
+
+        return new Throttle(srcClient, tgtClient, limits, file == null ? null : Paths.get(file), auto,
+                Long.getLong("etl.rate.auto.maxQueued", 50),
+                TimeUnit.SECONDS.toMillis(Long.getLong("etl.rate.auto.maxLagSeconds", 10)),
+                TimeUnit.SECONDS.toMillis(Long.getLong("etl.rate.auto.intervalSeconds", 5)));
+    }
+
+    /**
+     * Starts watching the control file and polling for pressure.
+     */
+    void start() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "etl-throttle");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        if (file != null) {
+            reload();
+            scheduler.scheduleWithFixedDelay(this::reload, 1, 1, TimeUnit.SECONDS);
+        }
+        if (auto) {
+            scheduler.scheduleWithFixedDelay(this::adjust, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        }
+        System.out.println("throttle " + this);
+    }
+
+    void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Delays until one source document may be read.
+     */
+    Mono<Void> read() {
+        read.incrementAndGet();
+        return delay(readDocs.reserve(1));
+    }
+
+    /**
+     * Delays until the batch may be written.
+     */
+    Mono<Void> write(List<Document> batch, Codec<Document> codec) {
+        written.addAndGet(batch.size());
+        long wait = writeDocs.reserve(batch.size());
+        if (writeBytes.rate() > 0)
+            wait = Math.max(wait, writeBytes.reserve(estimateBytes(batch, codec)));
+        return delay(wait);
+    }
+
+    private static Mono<Void> delay(long nanos) {
+        return nanos == 0 ? Mono.empty() : Mono.delay(Duration.ofNanos(nanos)).then();
+    }
+
+    /**
+     * BSON size of the batch extrapolated from every 16th document.
+     */
+    private static long estimateBytes(List<Document> batch, Codec<Document> codec) {
+        long bytes = 0;
+        int sampled = 0;
+        for (int i = 0; i < batch.size(); i += SAMPLE) {
+            bytes += new RawBsonDocument(batch.get(i), codec).getByteBuffer().remaining();
+            sampled++;
+        }
+        return sampled == 0 ? 0 : bytes * batch.size() / sampled;
+    }
+
+    private void setLimits(Properties limits) {
+        readLimit = rate(limits, "readDocs");
+        writeLimit = rate(limits, "writeDocs");
+        bytesLimit = rate(limits, "writeBytes");
+        apply();
+    }
+
+    private static double rate(Properties limits, String key) {
+        String value = limits.getProperty(key);
+        return value == null || value.trim().isEmpty() ? 0 : Double.parseDouble(value.trim());
+    }
+
+    private synchronized void apply() {
+        set(readDocs, effective(readLimit, readAuto));
+        set(writeDocs, effective(writeLimit, writeAuto));
+        set(writeBytes, bytesLimit);
+    }
+
+    private static void set(TokenBucket bucket, double rate) {
+        if (bucket.rate() != rate)
+            bucket.setRate(rate);
+    }
+
+    private static double effective(double limit, double auto) {
+        if (limit <= 0)
+            return auto;
+        return auto <= 0 ? limit : Math.min(limit, auto);
+    }
+
+    private void reload() {
+        try {
+            if (!Files.exists(file))
+                return;
+
+            long modified = Files.getLastModifiedTime(file).toMillis();
+            if (modified == fileModified)
+                return;
+            fileModified = modified;
+
+            Properties limits = new Properties();
+            try (InputStream in = Files.newInputStream(file)) {
+                limits.load(in);
+            }
+            setLimits(limits);
+            System.out.println("throttle reloaded from " + file + ": " + this);
+        } catch (IOException | RuntimeException e) {
+            System.out.println("unable to reload throttle limits from " + file + ": " + e.getMessage());
+        }
+    }
+
+    private void adjust() {
+        double seconds = intervalMillis / 1000.0;
+        double readRate = read.getAndSet(0) / seconds;
+        double writeRate = written.getAndSet(0) / seconds;
+
+        String srcPressure = pressure(srcClient);
+        String tgtPressure = tgtClient == srcClient ? srcPressure : pressure(tgtClient);
+
+        synchronized (this) {
+            readAuto = next(readAuto, readLimit, readRate, srcPressure);
+            writeAuto = next(writeAuto, writeLimit, writeRate, tgtPressure);
+            apply();
+        }
+
+        if (srcPressure != null || tgtPressure != null) {
+            System.out.println("throttle backing off (" +
+                    (srcPressure == null ? "" : "source " + srcPressure + " ") +
+                    (tgtPressure == null ? "" : "target " + tgtPressure) + "): " + this);
+        }
+    }
+
+    /**
+     * AIMD step of the automatic rate: halve under pressure, otherwise grow until the limit stops binding.
+     */
+    private static double next(double auto, double limit, double measured, String pressure) {
+        if (pressure != null)
+            return Math.max(1, (auto > 0 ? auto : Math.max(measured, 1)) / 2);
+
+        if (auto <= 0)
+            return 0;
+
+        double raised = auto * 1.25;
+        if ((limit > 0 && raised >= limit) || raised > 2 * measured)
+            return 0;
+        return raised;
+    }
+
+    /**
+     * Describes the pressure on the cluster, or returns null if it is under the thresholds or cannot
+     * be read.
+     */
+    private String pressure(MongoClient client) {
+        try {
+            Document status = Mono.from(client.getDatabase("admin").runCommand(new Document("serverStatus", 1))).block();
+            Document globalLock = (Document) status.get("globalLock");
+            Document queue = globalLock == null ? null : (Document) globalLock.get("currentQueue");
+            long queued = queue == null ? 0 : ((Number) queue.get("total")).longValue();
+            if (queued > maxQueued)
+                return queued + " queued ops";
+        } catch (Exception e) {
+            System.out.println("unable to read serverStatus for throttling: " + e.getMessage());
+            return null;
+        }
+
+        try {
+            Document replSet = Mono.from(client.getDatabase("admin").runCommand(new Document("replSetGetStatus", 1))).block();
+            long primary = 0;
+            long oldestSecondary = Long.MAX_VALUE;
+            for (Document member : replSet.getList("members", Document.class)) {
+                Date optime = member.getDate("optimeDate");
+                if (optime == null)
+                    continue;
+                if ("PRIMARY".equals(member.getString("stateStr")))
+                    primary = optime.getTime();
+                else if ("SECONDARY".equals(member.getString("stateStr")))
+                    oldestSecondary = Math.min(oldestSecondary, optime.getTime());
+            }
+            if (primary > 0 && oldestSecondary != Long.MAX_VALUE && primary - oldestSecondary > maxLagMillis)
+                return ((primary - oldestSecondary) / 1000) + "s secondary lag";
+        } catch (Exception e) {
+            // standalone or not permitted, lag is not checked
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return "read " + describe(readDocs.rate()) + " docs/s, write " + describe(writeDocs.rate()) +
+                " docs/s and " + describe(writeBytes.rate()) + " bytes/s" + (auto ? " (auto)" : "");
+    }
+
+    private static String describe(double rate) {
+        return rate <= 0 ? "unlimited" : String.valueOf(Math.round(rate));
+    }
+
+}
@@ -0,0 +1,65 @@
+package org.mongodb.etl;
+
+/**
+ * Token bucket rate limiter handing out waits instead of blocking, so callers can delay reactively.
+ *
+ * A reservation is granted immediately when the bucket has caught up and its cost is paid by the
+ * caller after it, the way a large batch is let through and the next one waits. Up to one second of
+ * unused rate is kept as burst. A rate of zero or less means unlimited.
+ */
+final class TokenBucket {
+
+    private static final long SECOND = 1_000_000_000L;
+
+    private double rate;
+    private long next = System.nanoTime();
+
+    TokenBucket(double rate) {
+        this.rate = rate;
+    }
+
+    synchronized double rate() {
+        return rate;
+    }
+
+    synchronized void setRate(double rate) {
+        this.rate = rate;
+        this.next = System.nanoTime();
+    }
+
+    /**
+     * Reserves the permits, returning how many nanoseconds the caller must wait before using them.
+     */
+    synchronized long reserve(long permits) {
+        return reserve(permits, System.nanoTime());
+    }
+
+    synchronized long reserve(long permits, long now) {
+        if (rate <= 0)
+            return 0;
+
+        if (next < now - SECOND)
+            next = now - SECOND;
+
+        long wait = Math.max(0, next - now);
+        next += (long) (permits * (double) SECOND / rate);
+        return wait;
+    }
+
+    /**
+     * Takes the permits only if they are available now, for callers that drop rather than wait.
+     */
+    synchronized boolean tryAcquire(long permits) {
+        return tryAcquire(permits, System.nanoTime());
+    }
+
+    synchronized boolean tryAcquire(long permits, long now) {
+        if (rate <= 0)
+            return true;
+        if (next > now)
+            return false;
+        reserve(permits, now);
+        return true;
+    }
+
+}
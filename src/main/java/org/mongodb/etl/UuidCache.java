@@ -0,0 +1,107 @@
+package org.mongodb.etl;
+
+import java.util.UUID;
+
+/**
+ * Bounded UUID keyed cache held in primitive arrays, with no UUID or entry objects per key.
+ *
+ * The table is 4-way set associative: a key hashes to one set of four slots and a full set evicts with
+ * the CLOCK algorithm using a per slot reference bit. Sets are guarded by striped locks so lookups from
+ * concurrent batches rarely contend.
+ */
+class UuidCache<V> {
+
+    private static final int WAYS = 4;
+    private static final int STRIPES = 64;
+
+    private final long[] msbs;
+    private final long[] lsbs;
+    private final Object[] values;
+    private final boolean[] referenced;
+    private final byte[] hands;
+    private final int setMask;
+    private final Object[] locks = new Object[STRIPES];
+
+    UuidCache(int capacity) {
+        int sets = Integer.highestOneBit(Math.max(capacity / WAYS, 1) * 2 - 1);
+        setMask = sets - 1;
+        msbs = new long[sets * WAYS];
+        lsbs = new long[sets * WAYS];
+        values = new Object[sets * WAYS];
+        referenced = new boolean[sets * WAYS];
+        hands = new byte[sets];
+        for (int i = 0; i < STRIPES; i++)
+            locks[i] = new Object();
+    }
+
+    int capacity() {
+        return values.length;
+    }
+
+    V get(UUID key) {
+        return get(key.getMostSignificantBits(), key.getLeastSignificantBits());
+    }
+
+    @SuppressWarnings("unchecked")
+    V get(long msb, long lsb) {
+        int set = set(msb, lsb);
+        synchronized (locks[set & (STRIPES - 1)]) {
+            int base = set * WAYS;
+            for (int slot = base; slot < base + WAYS; slot++) {
+                if (values[slot] != null && msbs[slot] == msb && lsbs[slot] == lsb) {
+                    referenced[slot] = true;
+                    return (V) values[slot];
+                }
+            }
+        }
+        return null;
+    }
+
+    void put(UUID key, V value) {
+        put(key.getMostSignificantBits(), key.getLeastSignificantBits(), value);
+    }
+
+    void put(long msb, long lsb, V value) {
+        int set = set(msb, lsb);
+        synchronized (locks[set & (STRIPES - 1)]) {
+            int base = set * WAYS;
+            int free = -1;
+            for (int slot = base; slot < base + WAYS; slot++) {
+                if (values[slot] == null) {
+                    if (free < 0)
+                        free = slot;
+                } else if (msbs[slot] == msb && lsbs[slot] == lsb) {
+                    values[slot] = value;
+                    return;
+                }
+            }
+
+            int slot = free >= 0 ? free : victim(set);
+            msbs[slot] = msb;
+            lsbs[slot] = lsb;
+            values[slot] = value;
+            referenced[slot] = false;
+        }
+    }
+
+    /**
+     * Advances the set's clock hand past recently referenced slots, clearing their bits.
+     */
+    private int victim(int set) {
+        int base = set * WAYS;
+        while (true) {
+            int slot = base + hands[set];
+            hands[set] = (byte) ((hands[set] + 1) & (WAYS - 1));
+            if (!referenced[slot])
+                return slot;
+            referenced[slot] = false;
+        }
+    }
+
+    private int set(long msb, long lsb) {
+        long h = msb ^ Long.rotateLeft(lsb, 29);
+        h *= 0x9e3779b97f4a7c15L;
+        return (int) (h >>> 32) & setMask;
+    }
+
+}
@@ -0,0 +1,127 @@
+package org.mongodb.etl;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Off-heap set of 128-bit keys (UUIDs as msb/lsb pairs) for referential checks over very large
+ * reference collections.
+ *
+ * Keys are stored inline in direct buffers with open addressing and linear probing, 16 bytes per slot,
+ * so no UUID or entry objects are created and the heap is unaffected. The table is sized for the
+ * expected key count at a load factor of 0.85 (about 19 bytes per key), and is split across buffers
+ * of 2^26 slots to stay under the 2GB direct buffer limit. The all-zero key marks an empty slot and is
+ * tracked separately.
+ *
+ * Adds are expected to happen single threaded before any lookups; lookups are then thread safe.
+ */
+class UuidSet {
+
+    static final double LOAD_FACTOR = 0.85;
+
+    private static final int SLOT_BYTES = 16;
+    private static final int SLOTS_PER_BUFFER_BITS = 26;
+    private static final int SLOTS_PER_BUFFER = 1 << SLOTS_PER_BUFFER_BITS;
+
+    private final ByteBuffer[] buffers;
+    private final long slots;
+    private final long maxSize;
+    private long size;
+    private boolean containsZero;
+
+    UuidSet(long expectedKeys) {
+        slots = Math.max((long) Math.ceil(expectedKeys / LOAD_FACTOR), 16);
+        maxSize = (long) (slots * 0.95);
+
+        int bufferCount = (int) ((slots + SLOTS_PER_BUFFER - 1) >>> SLOTS_PER_BUFFER_BITS);
+        buffers = new ByteBuffer[bufferCount];
+        for (int i = 0; i < bufferCount; i++) {
+            long bufferSlots = Math.min(SLOTS_PER_BUFFER, slots - ((long) i << SLOTS_PER_BUFFER_BITS));
+            buffers[i] = ByteBuffer.allocateDirect((int) bufferSlots * SLOT_BYTES).order(ByteOrder.nativeOrder());
+        }
+    }
+
+    long size() {
+        return size + (containsZero ? 1 : 0);
+    }
+
+    /**
+     * Off-heap bytes held by the table.
+     */
+    long memory() {
+        return slots * SLOT_BYTES;
+    }
+
+    /**
+     * Adds the key, returning false if it was already present.
+     */
+    boolean add(long msb, long lsb) {
+        if (msb == 0 && lsb == 0) {
+            boolean added = !containsZero;
+            containsZero = true;
+            return added;
+        }
+
+        for (long slot = index(msb, lsb); ; slot = next(slot)) {
+            ByteBuffer buffer = buffers[(int) (slot >>> SLOTS_PER_BUFFER_BITS)];
+            int offset = (int) (slot & (SLOTS_PER_BUFFER - 1)) * SLOT_BYTES;
+            long m = buffer.getLong(offset);
+            long l = buffer.getLong(offset + 8);
+
+            if (m == msb && l == lsb)
+                return false;
+
+            if (m == 0 && l == 0) {
+                if (size >= maxSize) {
+                    throw new IllegalStateException("UuidSet is full (" + size + " keys), size it for more keys");
+                }
+                buffer.putLong(offset, msb);
+                buffer.putLong(offset + 8, lsb);
+                size++;
+                return true;
+            }
+        }
+    }
+
+    boolean contains(long msb, long lsb) {
+        if (msb == 0 && lsb == 0)
+            return containsZero;
+
+        for (long slot = index(msb, lsb); ; slot = next(slot)) {
+            ByteBuffer buffer = buffers[(int) (slot >>> SLOTS_PER_BUFFER_BITS)];
+            int offset = (int) (slot & (SLOTS_PER_BUFFER - 1)) * SLOT_BYTES;
+            long m = buffer.getLong(offset);
+            long l = buffer.getLong(offset + 8);
+
+            if (m == msb && l == lsb)
+                return true;
+            if (m == 0 && l == 0)
+                return false;
+        }
+    }
+
+    private long next(long slot) {
+        return slot + 1 == slots ? 0 : slot + 1;
+    }
+
+    /**
+     * Maps the mixed key onto [0, slots) with a multiply-shift, so the table need not be a power of two.
+     */
+    private long index(long msb, long lsb) {
+        long h = (msb ^ Long.rotateLeft(lsb, 32)) * 0x9e3779b97f4a7c15L;
+        h ^= h >>> 29;
+        return multiplyHigh(h, slots);
+    }
+
+    private static long multiplyHigh(long hash, long range) {
+        // unsigned (hash * range) >>> 64 for a non-negative range below 2^63
+        long hashHi = hash >>> 32;
+        long hashLo = hash & 0xffffffffL;
+        long rangeHi = range >>> 32;
+        long rangeLo = range & 0xffffffffL;
+        long mid = hashHi * rangeLo + ((hashLo * rangeLo) >>> 32);
+        long mid2 = hashLo * rangeHi + (mid & 0xffffffffL);
+        return hashHi * rangeHi + (mid >>> 32) + (mid2 >>> 32);
+    }
+
+}
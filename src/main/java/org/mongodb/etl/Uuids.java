@@ -0,0 +1,131 @@
+package org.mongodb.etl;
+
+import org.bson.types.Binary;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * Fast conversions between canonical UUID strings and standard (subtype 4) BSON binaries.
+ *
+ * UUID.fromString splits and parses the string into a UUID which the UuidCodec then re-encodes; here
+ * the 36 characters are hex-decoded straight into the 16 bytes of the binary. Parsing is strict: the
+ * string must be exactly 8-4-4-4-12 hex digits (either case) with dashes in place.
+ */
+final class Uuids {
+
+    static final byte STANDARD_SUBTYPE = 0x04;
+
+    private static final byte[] HEX = new byte[128];
+
+    static {
+        Arrays.fill(HEX, (byte) -1);
+        for (int i = 0; i < 10; i++)
+            HEX['0' + i] = (byte) i;
+        for (int i = 0; i < 6; i++) {
+            HEX['a' + i] = (byte) (10 + i);
+            HEX['A' + i] = (byte) (10 + i);
+        }
+    }
+
+    private Uuids() {
+    }
+
+    /**
+     * Parses a canonical UUID string into a subtype 4 binary, throwing IllegalArgumentException if invalid.
+     */
+    static Binary toStandardBinary(String uuid) {
+        return new Binary(STANDARD_SUBTYPE, toBytes(uuid));
+    }
+
+    /**
+     * Converts a UUID object to a Binary with a subtype 0x04.
+     */
+    static Binary toStandardBinary(UUID uuid) {
+        byte[] bytes = new byte[16];
+        writeLong(bytes, 0, uuid.getMostSignificantBits());
+        writeLong(bytes, 8, uuid.getLeastSignificantBits());
+        return new Binary(STANDARD_SUBTYPE, bytes);
+    }
+
+    /**
+     * Parses a canonical UUID string into its 16 big-endian bytes.
+     */
+    static byte[] toBytes(String uuid) {
+        byte[] bytes = new byte[16];
+        writeLong(bytes, 0, mostSignificantBits(uuid));
+        writeLong(bytes, 8, leastSignificantBits(uuid));
+        return bytes;
+    }
+
+    static long mostSignificantBits(String uuid) {
+        checkShape(uuid);
+        long n1 = nibbles(uuid, 0);
+        long n2 = nibbles(uuid, 4);
+        long n3 = nibbles(uuid, 9);
+        long n4 = nibbles(uuid, 14);
+        if ((n1 | n2 | n3 | n4) < 0) {
+            throw new IllegalArgumentException("invalid UUID string: " + uuid);
+        }
+        return n1 << 48 | n2 << 32 | n3 << 16 | n4;
+    }
+
+    static long leastSignificantBits(String uuid) {
+        checkShape(uuid);
+        long n1 = nibbles(uuid, 19);
+        long n2 = nibbles(uuid, 24);
+        long n3 = nibbles(uuid, 28);
+        long n4 = nibbles(uuid, 32);
+        if ((n1 | n2 | n3 | n4) < 0) {
+            throw new IllegalArgumentException("invalid UUID string: " + uuid);
+        }
+        return n1 << 48 | n2 << 32 | n3 << 16 | n4;
+    }
+
+    /**
+     * True if the binary holds a standard UUID.
+     */
+    static boolean isStandard(Binary binary) {
+        return binary.getType() == STANDARD_SUBTYPE && binary.getData().length == 16;
+    }
+
+    static UUID fromStandardBinary(Binary binary) {
+        byte[] bytes = binary.getData();
+        return new UUID(readLong(bytes, 0), readLong(bytes, 8));
+    }
+
+    static long readLong(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = offset; i < offset + 8; i++)
+            value = value << 8 | (bytes[i] & 0xff);
+        return value;
+    }
+
+    private static void writeLong(byte[] bytes, int offset, long value) {
+        for (int i = offset + 7; i >= offset; i--) {
+            bytes[i] = (byte) (value & 0xFFL);
+            value >>= 8;
+        }
+    }
+
+    private static void checkShape(String uuid) {
+        if (uuid == null || uuid.length() != 36 ||
+                uuid.charAt(8) != '-' || uuid.charAt(13) != '-' || uuid.charAt(18) != '-' || uuid.charAt(23) != '-') {
+            throw new IllegalArgumentException("invalid UUID string: " + uuid);
+        }
+    }
+
+    /**
+     * Decodes four hex digits, or returns a negative value if any of them is not a hex digit.
+     */
+    private static int nibbles(String uuid, int index) {
+        char c1 = uuid.charAt(index);
+        char c2 = uuid.charAt(index + 1);
+        char c3 = uuid.charAt(index + 2);
+        char c4 = uuid.charAt(index + 3);
+        if ((c1 | c2 | c3 | c4) >= 128)
+            return -1;
+        return HEX[c1] << 12 | HEX[c2] << 8 | HEX[c3] << 4 | HEX[c4];
+    }
+
+}
@@ -0,0 +1,217 @@
+package org.mongodb.etl;
+
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import org.bson.ByteBuf;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.Codec;
+import org.bson.conversions.Bson;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compares the target of a {@link Runner} against its source without a single threaded diff.
+ *
+ * The natural key space is split into {@link KeyRange}s by hex prefix (16 or 256 ranges,
+ * -Detl.verifyPartitions). For every range, in parallel, the source rows are re-transformed and the
+ * target documents read back, and each side is reduced to a count and an order independent sum of
+ * 64-bit document hashes. Fields the runner mints at random (the target _id for most collections) are
+ * left out of the hash.
+ *
+ * The source side drops what the load dropped: duplicates of a natural key when the {@link Deduplicator}
+ * is on, keeping the latest in LATEST mode, and orphans when the {@link ReferenceCheck} is on. Duplicates
+ * that differ but cannot be told apart (any in DROP mode, equal updatedat in LATEST mode) leave the kept
+ * one unknown, so their range is verified by count only. Verification is refused if the dedup key does
+ * not include the range key, as duplicates could then span ranges. Bad documents met by the re-transforms
+ * were already counted by the run and are not recorded again.
+ */
+class Verifier {
+
+    private final Runner runner;
+    private final int partitions;
+    private final Codec<Document> codec;
+    private final Set<String> unverified;
+    private final Deduplicator dedup;
+    private final AtomicInteger countOnly = new AtomicInteger();
+
+    Verifier(Runner runner) {
+        this.runner = runner;
+        this.unverified = new HashSet<>(runner.unverifiedFields());
+        if (runner.enricher != null) {
+            // joined in after the transform, so absent from the re-transformed source
+            this.unverified.add(runner.enricher.as());
+        }
+        this.dedup = runner.deduplicator;
+        this.partitions = Integer.getInteger("etl.verifyPartitions", 256);
+        this.codec = runner.tgt.getCodecRegistry().get(Document.class);
+    }
+
+    /**
+     * Verifies every range, printing the ones that differ, and returns true if the target matches.
+     */
+    boolean verify() {
+        if (dedup != null && !dedup.key().contains(runner.targetKey())) {
+            System.out.println("verification refused: the dedup key " + dedup.key() + " does not include " +
+                    runner.targetKey() + ", so duplicates may span key ranges");
+            return false;
+        }
+
+        long start = System.currentTimeMillis();
+        List<KeyRange> ranges = KeyRange.split(partitions);
+
+        List<String> mismatches;
+        runner.badDocuments.mute(true);
+        try {
+            mismatches = Flux.fromIterable(ranges)
+                    .flatMap(this::verifyRange, runner.concurrency)
+                    .filter(result -> !result.isEmpty())
+                    .collectList()
+                    .block();
+        } finally {
+            runner.badDocuments.mute(false);
+        }
+
+        mismatches.forEach(System.out::println);
+
+        System.out.println("verified " + ranges.size() + " ranges in " +
+                Math.round((System.currentTimeMillis() - start) / 1000.0) + "s, " +
+                mismatches.size() + " mismatched" +
+                (countOnly.get() > 0 ? ", " + countOnly.get() + " by count only (differing duplicates)" : ""));
+
+        return mismatches.isEmpty();
+    }
+
+    private Mono<String> verifyRange(KeyRange range) {
+        return Mono.zip(sourceDigest(range), targetDigest(range))
+                .map(digests -> {
+                    Digest source = digests.getT1();
+                    Digest target = digests.getT2();
+
+                    if (source.ambiguous)
+                        countOnly.incrementAndGet();
+
+                    if (source.count == target.count && (source.ambiguous || source.hash == target.hash) &&
+                            source.rows == source.count + source.dropped)
+                        return "";
+
+                    return "range " + range + ": " +
+                            "source " + source.rows + " (" + (source.rows - source.count - source.dropped) +
+                            " failed transforms, " + source.dropped + " dropped), " +
+                            "target " + target.count + ", " +
+                            "hash " + Long.toHexString(source.hash) + " vs " + Long.toHexString(target.hash);
+                });
+    }
+
+    private Mono<Digest> sourceDigest(KeyRange range) {
+        Bson query = runner.filter == null ? range.source(runner.sourceKey()) : Filters.and(runner.filter, range.source(runner.sourceKey()));
+        Digest digest = new Digest();
+
+        Flux<Document> transformed = Flux.from(runner.src.find(query).projection(runner.projection()).batchSize(runner.batchSize))
+                .doOnNext(doc -> digest.rows++)
+                .concatMap(doc -> {
+                    Mono<Document> mono = runner.transform(doc);
+                    return mono == null ? Mono.<Document>empty() : mono;
+                });
+
+        if (dedup != null) {
+            transformed = transformed
+                    .collect(LinkedHashMap<String, Document>::new, (kept, doc) -> keep(kept, doc, digest))
+                    .flatMapMany(kept -> Flux.fromIterable(kept.values()));
+        }
+        if (runner.referenceCheck != null) {
+            transformed = transformed.filter(doc -> {
+                if (runner.referenceCheck.valid(doc))
+                    return true;
+                digest.dropped++;
+                return false;
+            });
+        }
+
+        return transformed.reduce(digest, (d, doc) -> d.add(hash(doc)));
+    }
+
+    /**
+     * Keeps the document of its natural key the dedup would have kept.
+     */
+    private void keep(Map<String, Document> kept, Document doc, Digest digest) {
+        String key = dedup.key(doc);
+        Document previous = kept.putIfAbsent(key, doc);
+        if (previous == null)
+            return;
+
+        digest.dropped++;
+        long updated = Deduplicator.updated(doc);
+        long previousUpdated = Deduplicator.updated(previous);
+        if (dedup.mode() == Deduplicator.Mode.LATEST && updated != previousUpdated) {
+            if (updated > previousUpdated)
+                kept.put(key, doc);
+        } else if (hash(doc) != hash(previous)) {
+            digest.ambiguous = true;
+        }
+    }
+
+    private Mono<Digest> targetDigest(KeyRange range) {
+        Bson projection = unverified.isEmpty() ? null : Projections.exclude(new ArrayList<>(unverified));
+
+        return Flux.from(runner.tgt.find(range.target(runner.targetKey(), runner.uuidKey())).projection(projection).batchSize(runner.batchSize))
+                .reduce(new Digest(), (d, doc) -> d.add(hash(doc)));
+    }
+
+    private long hash(Document doc) {
+        Document hashed = doc;
+        if (!unverified.isEmpty()) {
+            hashed = new Document(doc);
+            hashed.keySet().removeAll(unverified);
+        }
+        ByteBuf bytes = new RawBsonDocument(hashed, codec).getByteBuffer();
+        return hash(bytes.array(), bytes.position(), bytes.remaining());
+    }
+
+    /**
+     * 64-bit FNV-1a with a murmur3 finalizer so that sums of hashes spread across all bits.
+     */
+    static long hash(byte[] bytes) {
+        return hash(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Hash of len bytes from off, so a document's bytes are hashed without the unused tail of its buffer.
+     */
+    static long hash(byte[] bytes, int off, int len) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = off; i < off + len; i++) {
+            h ^= bytes[i] & 0xff;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static class Digest {
+        long rows;
+        long count;
+        long dropped;
+        long hash;
+        boolean ambiguous;
+
+        Digest add(long docHash) {
+            count++;
+            hash += docHash;
+            return this;
+        }
+    }
+
+}
@@ -0,0 +1,69 @@
+package org.mongodb.etl;
+
+import com.mongodb.reactivestreams.client.MongoClient;
+import org.bson.Document;
+import reactor.core.publisher.Mono;
+
+/**
+ * Snapshot of the server's network and wire compression counters from serverStatus.
+ *
+ * The counters are server wide so the delta is only exact when the ETL is the sole client.
+ */
+class WireStats {
+
+    final long bytesIn;
+    final long bytesOut;
+    final long bytesSaved;
+
+    WireStats(long bytesIn, long bytesOut, long bytesSaved) {
+        this.bytesIn = bytesIn;
+        this.bytesOut = bytesOut;
+        this.bytesSaved = bytesSaved;
+    }
+
+    /**
+     * Reads the current counters, or returns null if serverStatus is not permitted for this user.
+     */
+    static WireStats snapshot(MongoClient client) {
+        try {
+            Document status = Mono.from(client.getDatabase("admin").runCommand(new Document("serverStatus", 1))).block();
+            Document network = (Document) status.get("network");
+
+            long saved = 0;
+            Document compression = (Document) network.get("compression");
+            if (compression != null) {
+                for (Object value : compression.values()) {
+                    Document compressor = (Document) ((Document) value).get("compressor");
+                    Document decompressor = (Document) ((Document) value).get("decompressor");
+
+                    // server compresses replies (in > out) and decompresses our requests (out > in)
+                    saved += number(compressor, "bytesIn") - number(compressor, "bytesOut");
+                    saved += number(decompressor, "bytesOut") - number(decompressor, "bytesIn");
+                }
+            }
+
+            return new WireStats(number(network, "bytesIn"), number(network, "bytesOut"), saved);
+        }
+        catch (Exception e) {
+            System.out.println("unable to read serverStatus network stats: " + e.getMessage());
+            return null;
+        }
+    }
+
+    WireStats minus(WireStats before) {
+        return new WireStats(bytesIn - before.bytesIn, bytesOut - before.bytesOut, bytesSaved - before.bytesSaved);
+    }
+
+    @Override
+    public String toString() {
+        return "wire bytes in " + bytesIn + ", out " + bytesOut + ", saved by compression " + bytesSaved;
+    }
+
+    private static long number(Document doc, String key) {
+        if (doc == null)
+            return 0;
+        Object value = doc.get(key);
+        return value instanceof Number ? ((Number) value).longValue() : 0;
+    }
+
+}
@@ -0,0 +1,313 @@
+package org.mongodb.etl;
+
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.Updates;
+import com.mongodb.reactivestreams.client.MongoClient;
+import com.mongodb.reactivestreams.client.MongoCollection;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lease based work queue spreading one migration over several processes.
+ *
+ * The coordinator drops the target, splits the source key space into {@link KeyRange} units and seeds
+ * one lease document per unit. Every process (the coordinator included) then claims pending units, or
+ * units whose lease has run out, runs the usual transform and load pipeline on the unit's key range
+ * and marks it done. Leases are renewed every third of the lease time while a unit runs; a worker that
+ * loses its lease, or cannot renew it for two thirds of the lease time, abandons the unit. A reclaimed
+ * unit's target range is deleted before it is loaded again, so a crashed worker leaves no duplicates.
+ *
+ * Losing a lease is only noticed at the next renewal, so every batch is also fenced: it is written only
+ * if the lease is still held for at least a third of the lease time. A worker that stalled past its lease
+ * (a long GC pause, a partition) therefore cannot write into a range another worker has reclaimed and
+ * cleared, as long as a write takes less than a third of the lease time.
+ *
+ * Every lease document carries the run it was seeded for. A worker started before the coordinator
+ * reseeds would otherwise find the previous run's units all done and exit: it only joins a run that is
+ * named etl.queue.run, or else a run that still has open units or was seeded after the worker started.
+ *
+ * Leases are stamped with the workers' clocks, so the lease time must be well above the clock skew.
+ * A worker that is stopped hands its current unit back as pending, so the next claim reloads it
+ * without waiting for the lease to run out.
+ *
+ * System properties:
+ *   etl.queue              - "coordinator" or "worker"; the queue is off if unset
+ *   etl.queue.ns           - lease collection (default: the target namespace + "_leases")
+ *   etl.queue.units        - number of work units, 16 or 256 (default 256)
+ *   etl.queue.leaseSeconds - lease time (default 60)
+ *   etl.queue.worker       - worker id in the lease documents (default pid@host)
+ *   etl.queue.run          - run id, the same for the coordinator and its workers (default: the seed time)
+ */
+class WorkQueue {
+
+    private static final String PENDING = "pending";
+    private static final String LEASED = "leased";
+    private static final String DONE = "done";
+
+    private final MongoCollection<Document> leases;
+    private final boolean coordinator;
+    private final int units;
+    private final long leaseMillis;
+    private final String worker;
+    private final String run;
+    private final long started = System.currentTimeMillis();
+
+    private volatile boolean stopped;
+
+    WorkQueue(MongoCollection<Document> leases, boolean coordinator, int units, long leaseMillis, String worker,
+              String run) {
+        this.leases = leases;
+        this.coordinator = coordinator;
+        this.units = units;
+        this.leaseMillis = leaseMillis;
+        this.worker = worker;
+        this.run = run;
+    }
+
+    /**
+     * Creates the work queue configured by system properties, or null if the queue is not enabled.
+     */
+    static WorkQueue fromProperties(MongoClient client, String tgtNs) {
+        String mode = System.getProperty("etl.queue");
+        if (mode == null || mode.isEmpty())
+            return null;
+
+        if (!mode.equals("coordinator") && !mode.equals("worker")) {
+            throw new IllegalArgumentException("etl.queue must be coordinator or worker (" + mode + ")");
+        }
+
+        String ns = System.getProperty("etl.queue.ns", tgtNs + "_leases");
+        String[] split = ns.split("\\.");
+        if (split.length != 2) {
+            throw new IllegalArgumentException("lease namespace is not valid (" + ns + ")");
+        }
+
+        return new WorkQueue(
+                client.getDatabase(split[0]).getCollection(split[1]),
+                mode.equals("coordinator"),
+                Integer.getInteger("etl.queue.units", 256),
+                TimeUnit.SECONDS.toMillis(Long.getLong("etl.queue.leaseSeconds", 60)),
+                System.getProperty("etl.queue.worker", ManagementFactory.getRuntimeMXBean().getName()),
+                System.getProperty("etl.queue.run"));
+    }
+
+    boolean isCoordinator() {
+        return coordinator;
+    }
+
+    /**
+     * Stops claiming units. The unit being loaded is released when its loader returns.
+     */
+    void stop() {
+        stopped = true;
+    }
+
+    /**
+     * Replaces the lease collection with one pending unit per key range.
+     */
+    void seed() {
+        Mono.from(leases.drop()).block();
+
+        Date now = new Date();
+        String id = run != null ? run : Long.toString(now.getTime());
+        List<Document> docs = new ArrayList<>();
+        for (KeyRange range : KeyRange.split(units)) {
+            docs.add(new Document("_id", range.partition)
+                    .append("run", id)
+                    .append("seededAt", now)
+                    .append("partitions", range.partitions)
+                    .append("state", PENDING)
+                    .append("attempts", 0));
+        }
+        Mono.from(leases.insertMany(docs)).block();
+
+        System.out.println("seeded " + docs.size() + " work units of run " + id + " in " + leases.getNamespace().getFullName());
+    }
+
+    /**
+     * Claims and runs units until every unit is done, waiting for leases held by other workers to either
+     * complete or run out. The runner loads each claimed range and returns the number of documents
+     * loaded, or -1 if it gave up on the unit.
+     */
+    void work(UnitLoader loader) {
+        long start = System.currentTimeMillis();
+        int completed = 0;
+        long docs = 0;
+        boolean waited = false;
+
+        while (!stopped) {
+            Document unit = claim();
+
+            if (unit == null) {
+                long total = Mono.from(leases.countDocuments(current())).block();
+                long open = Mono.from(leases.countDocuments(Filters.and(current(), Filters.ne("state", DONE)))).block();
+                if (total > 0 && open == 0) {
+                    if (run != null || coordinator || seededSinceStart())
+                        break;
+                    if (!waited)
+                        System.out.println(worker + " found the units of a previous run, waiting for the coordinator to seed");
+                    waited = true;
+                }
+
+                // not seeded yet, or the remaining units are leased by other workers
+                sleep(Math.min(leaseMillis / 3, 5000));
+                continue;
+            }
+
+            KeyRange range = new KeyRange(unit.getInteger("_id"), unit.getInteger("partitions"));
+            System.out.println(worker + " claimed unit " + range + " (attempt " + unit.getInteger("attempts") + ")");
+
+            long loaded = loader.load(range, unit.getInteger("attempts") > 1, leaseLost(unit), leaseHeld(unit));
+            if (loaded < 0) {
+                if (stopped)
+                    release(unit);
+                System.out.println(worker + " abandoned unit " + range);
+                continue;
+            }
+
+            if (complete(unit, loaded)) {
+                completed++;
+                docs += loaded;
+            } else {
+                System.out.println(worker + " lost the lease on unit " + range + " before completing it");
+            }
+        }
+
+        System.out.println(worker + " completed " + completed + " units (" + docs + " documents) in " +
+                Math.round((System.currentTimeMillis() - start) / 1000.0) + "s");
+    }
+
+    /**
+     * Documents loaded by all completed units.
+     */
+    long loaded() {
+        return Flux.from(leases.find(Filters.and(current(), Filters.eq("state", DONE))))
+                .reduce(0L, (sum, unit) -> sum + unit.getLong("loaded"))
+                .block();
+    }
+
+    private Document claim() {
+        Date now = new Date();
+        Bson claimable = Filters.and(current(), Filters.or(
+                Filters.eq("state", PENDING),
+                Filters.and(Filters.eq("state", LEASED), Filters.lt("leaseUntil", now))));
+
+        return Mono.from(leases.findOneAndUpdate(claimable,
+                Updates.combine(
+                        Updates.set("state", LEASED),
+                        Updates.set("owner", worker),
+                        Updates.set("leaseUntil", new Date(now.getTime() + leaseMillis)),
+                        Updates.inc("attempts", 1)),
+                new FindOneAndUpdateOptions()
+                        .sort(Sorts.ascending("_id"))
+                        .returnDocument(ReturnDocument.AFTER)))
+                .block();
+    }
+
+    private boolean complete(Document unit, long loaded) {
+        return Mono.from(leases.updateOne(owned(unit), Updates.combine(
+                Updates.set("state", DONE),
+                Updates.set("loaded", loaded),
+                Updates.set("finishedAt", new Date()))))
+                .block()
+                .getMatchedCount() > 0;
+    }
+
+    /**
+     * Hands an unfinished unit back. Its attempts count already marks it as reclaimed, so the range is
+     * cleared before it is loaded again.
+     */
+    private void release(Document unit) {
+        Mono.from(leases.updateOne(owned(unit), Updates.combine(
+                Updates.set("state", PENDING),
+                Updates.unset("owner"),
+                Updates.unset("leaseUntil"))))
+                .block();
+    }
+
+    /**
+     * Renews the unit's lease periodically and emits if the lease is lost or cannot be renewed before it
+     * runs out. Cancelling the subscription stops the renewals.
+     */
+    private Mono<Boolean> leaseLost(Document unit) {
+        AtomicLong renewed = new AtomicLong(System.currentTimeMillis());
+        long deadline = leaseMillis * 2 / 3;
+
+        return Flux.interval(Duration.ofMillis(leaseMillis / 3))
+                .concatMap(tick -> Mono.from(leases.updateOne(owned(unit),
+                        Updates.set("leaseUntil", new Date(System.currentTimeMillis() + leaseMillis))))
+                        .map(result -> {
+                            if (result.getMatchedCount() == 0)
+                                return false;
+                            renewed.set(System.currentTimeMillis());
+                            return true;
+                        })
+                        .onErrorResume(e -> {
+                            System.out.println(worker + " unable to renew lease: " + e.getMessage());
+                            return Mono.just(System.currentTimeMillis() - renewed.get() < deadline);
+                        }))
+                .filter(ok -> !ok)
+                .next();
+    }
+
+    /**
+     * Emits whether the unit is still leased to this worker for at least a third of the lease time, checked
+     * anew on every subscription.
+     */
+    private Mono<Boolean> leaseHeld(Document unit) {
+        return Mono.defer(() -> Mono.from(leases.countDocuments(Filters.and(owned(unit),
+                Filters.gt("leaseUntil", new Date(System.currentTimeMillis() + leaseMillis / 3))))))
+                .map(count -> count > 0);
+    }
+
+    /**
+     * The units of the named run, or of whichever run is seeded.
+     */
+    private Bson current() {
+        return run == null ? new Document() : Filters.eq("run", run);
+    }
+
+    private boolean seededSinceStart() {
+        Document unit = Mono.from(leases.find().first()).block();
+        return unit != null && unit.getDate("seededAt") != null && unit.getDate("seededAt").getTime() >= started;
+    }
+
+    private Bson owned(Document unit) {
+        return Filters.and(Filters.eq("_id", unit.get("_id")), Filters.eq("state", LEASED), Filters.eq("owner", worker));
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted waiting for work units", e);
+        }
+    }
+
+    /**
+     * Loads one key range for the work queue.
+     */
+    interface UnitLoader {
+        /**
+         * Returns the number of documents loaded, or -1 if the load was abandoned because leaseLost
+         * emitted or leaseHeld, checked before each write, emitted false. If reclaimed is set the range
+         * may be partly loaded by a previous worker.
+         */
+        long load(KeyRange range, boolean reclaimed, Mono<Boolean> leaseLost, Mono<Boolean> leaseHeld);
+    }
+
+}
@@ -0,0 +1,42 @@
+package org.mongodb.etl;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BloomFilterTest {
+
+    @Test
+    void noFalseNegatives() {
+        BloomFilter filter = new BloomFilter(100_000, 0.01);
+
+        for (int i = 0; i < 100_000; i++)
+            filter.put(hash("key" + i));
+
+        for (int i = 0; i < 100_000; i++) {
+            assertTrue(filter.mightContain(hash("key" + i)));
+            assertTrue(filter.put(hash("key" + i)));
+        }
+    }
+
+    @Test
+    void falsePositivesNearProbability() {
+        BloomFilter filter = new BloomFilter(100_000, 0.01);
+        for (int i = 0; i < 100_000; i++)
+            filter.put(hash("key" + i));
+
+        int falsePositives = 0;
+        for (int i = 0; i < 100_000; i++) {
+            if (filter.mightContain(hash("other" + i)))
+                falsePositives++;
+        }
+        assertTrue(falsePositives < 2000, falsePositives + " false positives");
+    }
+
+    private static long hash(String key) {
+        return Verifier.hash(key.getBytes(StandardCharsets.UTF_8));
+    }
+
+}
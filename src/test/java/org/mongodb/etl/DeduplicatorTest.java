@@ -0,0 +1,172 @@
+package org.mongodb.etl;
+
+import com.mongodb.MongoClientSettings;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.conversions.Bson;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DeduplicatorTest {
+
+    private final CodecRegistry registry = MongoClientSettings.getDefaultCodecRegistry();
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void dropKeepsFirst() throws IOException {
+        Result result = run(Deduplicator.Mode.DROP, Arrays.asList("groupid", "memberid"), 0.01, 256 << 20,
+                1000, 100);
+
+        assertEquals(1000, result.loaded.size());
+        assertTrue(result.replacements.isEmpty());
+        for (Document doc : result.loaded)
+            assertEquals(1000L, ((Date) doc.get("updatedat")).getTime());
+    }
+
+    @Test
+    void latestReplacesOlder() throws IOException {
+        Result result = run(Deduplicator.Mode.LATEST, Arrays.asList("groupid", "memberid"), 0.01, 256 << 20,
+                1000, 100);
+
+        assertEquals(1000, result.loaded.size());
+        assertEquals(result.replacements.size(), result.replaced);
+        assertLatest(result, 1000, 100);
+        for (Document doc : result.replacements)
+            assertFalse(doc.containsKey("_id"), "the loaded document keeps its _id");
+    }
+
+    @Test
+    void falsePositivesAreLoaded() throws IOException {
+        // a filter sized for 10 keys at 50% hits almost every one of 1000 distinct keys
+        Deduplicator dedup = new Deduplicator(Deduplicator.Mode.DROP, Arrays.asList("groupid", "memberid"), 0.5,
+                256 << 20, registry.get(Document.class), dir);
+        dedup.start(10);
+
+        List<Document> docs = new ArrayList<>();
+        for (int i = 0; i < 1000; i++)
+            docs.add(doc("id" + i, "m" + i, 1000));
+
+        Result result = new Result();
+        result.loaded.addAll(dedup.filter(docs));
+        assertTrue(result.loaded.size() < 1000);
+
+        finish(dedup, result);
+        assertEquals(1000, result.loaded.size());
+        assertEquals(1000, distinctMembers(result.loaded));
+        assertTrue(result.replacements.isEmpty());
+    }
+
+    @Test
+    void spillPartitionsResolveLikeOne() throws IOException {
+        // a 1KB budget splits the spill into many partitions
+        Result result = run(Deduplicator.Mode.LATEST, Arrays.asList("groupid", "memberid"), 0.01, 1024,
+                2000, 500);
+
+        assertEquals(2000, result.loaded.size());
+        assertLatest(result, 2000, 500);
+    }
+
+    @Test
+    void idNaturalKey() throws IOException {
+        Result result = run(Deduplicator.Mode.LATEST, Collections.singletonList("_id"), 0.01, 256 << 20,
+                100, 10);
+
+        assertFalse(result.replacements.isEmpty());
+        assertLatest(result, 100, 10);
+        for (int i = 0; i < result.replacements.size(); i++) {
+            Document doc = result.replacements.get(i);
+            assertNotNull(doc.get("_id"));
+
+            BsonDocument filter = result.filters.get(i).toBsonDocument(BsonDocument.class, registry);
+            assertEquals(doc.getString("_id"), filter.getString("_id").getValue());
+        }
+    }
+
+    /**
+     * Filters count distinct members with updatedat 1000, then later duplicates of the first members
+     * with updatedat 2000, and resolves the spill.
+     */
+    private Result run(Deduplicator.Mode mode, List<String> key, double fpp, long memoryBytes,
+                       int count, int duplicates) throws IOException {
+        Deduplicator dedup = new Deduplicator(mode, key, fpp, memoryBytes, registry.get(Document.class), dir);
+        dedup.start(count + duplicates);
+
+        Result result = new Result();
+        List<Document> batch = new ArrayList<>();
+        for (int i = 0; i < count; i++)
+            batch.add(doc("id" + i, "m" + i, 1000));
+        for (int i = 0; i < duplicates; i++)
+            batch.add(doc(key.contains("_id") ? "id" + i : "dup" + i, "m" + i, 2000));
+
+        for (int i = 0; i < batch.size(); i += 100)
+            result.loaded.addAll(dedup.filter(batch.subList(i, Math.min(i + 100, batch.size()))));
+
+        finish(dedup, result);
+        return result;
+    }
+
+    private static void finish(Deduplicator dedup, Result result) {
+        dedup.finish(
+                batch -> {
+                    result.loaded.addAll(batch);
+                    return Mono.empty();
+                },
+                (batch, filter, replaced) -> {
+                    for (Document doc : batch) {
+                        result.replacements.add(doc);
+                        result.filters.add(filter.apply(doc));
+                    }
+                    result.replaced = replaced.addAndGet(batch.size());
+                    return Mono.empty();
+                },
+                64);
+    }
+
+    private static Document doc(String id, String member, long updated) {
+        return new Document("_id", id)
+                .append("groupid", "g")
+                .append("memberid", member)
+                .append("updatedat", new Date(updated));
+    }
+
+    /**
+     * Every member loaded once, and after the replacements the first duplicates ones have the later updatedat.
+     */
+    private static void assertLatest(Result result, int count, int duplicates) {
+        assertEquals(count, distinctMembers(result.loaded));
+
+        Map<String, Long> updated = new HashMap<>();
+        for (Document doc : result.loaded)
+            updated.put(doc.getString("memberid"), ((Date) doc.get("updatedat")).getTime());
+        for (Document doc : result.replacements)
+            updated.put(doc.getString("memberid"), ((Date) doc.get("updatedat")).getTime());
+
+        for (int i = 0; i < count; i++)
+            assertEquals(i < duplicates ? 2000L : 1000L, updated.get("m" + i).longValue(), "m" + i);
+    }
+
+    private static int distinctMembers(List<Document> docs) {
+        Set<String> members = new HashSet<>();
+        for (Document doc : docs)
+            members.add(doc.getString("memberid"));
+        return members.size();
+    }
+
+    private static final class Result {
+        final List<Document> loaded = new ArrayList<>();
+        final List<Document> replacements = new ArrayList<>();
+        final List<Bson> filters = new ArrayList<>();
+        long replaced;
+    }
+
+}
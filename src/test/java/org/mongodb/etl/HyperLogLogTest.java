@@ -0,0 +1,52 @@
+package org.mongodb.etl;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HyperLogLogTest {
+
+    @Test
+    void estimatesWithinError() {
+        for (int n : new int[]{10, 1000, 100_000, 1_000_000}) {
+            HyperLogLog hll = new HyperLogLog(14);
+            for (int i = 0; i < n; i++) {
+                // every value twice, duplicates must not count
+                hll.add(hash(UUID.nameUUIDFromBytes(bytes(i)).toString()));
+                hll.add(hash(UUID.nameUUIDFromBytes(bytes(i)).toString()));
+            }
+            assertEquals(n, hll.estimate(), Math.max(1, n * 0.03), "n = " + n);
+        }
+    }
+
+    @Test
+    void mergesPartitions() {
+        HyperLogLog all = new HyperLogLog(14);
+        HyperLogLog first = new HyperLogLog(14);
+        HyperLogLog second = new HyperLogLog(14);
+        for (int i = 0; i < 200_000; i++) {
+            long hash = hash("member-" + i);
+            all.add(hash);
+            (i % 3 == 0 ? first : second).add(hash);
+            // overlap between the partitions
+            if (i % 5 == 0)
+                first.add(hash);
+        }
+
+        first.merge(second);
+        assertEquals(all.estimate(), first.estimate());
+    }
+
+    private static long hash(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        return HyperLogLog.hash(bytes, 0, bytes.length, 0);
+    }
+
+    private static byte[] bytes(int i) {
+        return Integer.toString(i).getBytes(StandardCharsets.UTF_8);
+    }
+
+}
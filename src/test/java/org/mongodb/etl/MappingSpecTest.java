@@ -0,0 +1,74 @@
+package org.mongodb.etl;
+
+import org.bson.Document;
+import org.bson.types.Binary;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MappingSpecTest {
+
+    @Test
+    void bundledSpecsCompile() {
+        for (String name : Arrays.asList("group", "member", "userorgassociation", "orguserassociation", "userassociation", "sectionassociation")) {
+            MappingSpec spec = MappingSpec.load("mappings/" + name + ".yaml");
+            assertNotNull(spec.compile(), name);
+            assertTrue(spec.sourceFields().contains(spec.key.source), name);
+        }
+    }
+
+    @Test
+    void mapsMember() {
+        UUID groupid = UUID.randomUUID();
+        Document source = new Document("groupid", groupid.toString())
+                .append("memberid", 42)
+                .append("membertype", null)
+                .append("system", "sys")
+                .append("createdat", "2019-08-01 10:11:12")
+                .append("updatedat", "not a date");
+
+        Document target = MappingSpec.load("mappings/member.yaml").compile().apply(source);
+
+        assertEquals(Arrays.asList("_id", "memberid", "system", "groupid", "createdat"), Arrays.asList(target.keySet().toArray()));
+        assertEquals(Uuids.STANDARD_SUBTYPE, ((Binary) target.get("_id")).getType());
+        assertEquals("42", target.get("memberid"));
+        assertEquals(groupid, Uuids.fromStandardBinary((Binary) target.get("groupid")));
+        assertEquals(new Date(1564654272000L), target.get("createdat"));
+    }
+
+    @Test
+    void generatedMatchesInterpreted() throws Exception {
+        MappingSpec spec = MappingSpec.load("mappings/userassociation.yaml");
+        CompiledMapping interpreted = spec.compile();
+        GeneratedMapping generated = new GeneratedMapping(spec.fields);
+
+        Document source = new Document("id", "u1")
+                .append("associd", "a1")
+                .append("assocblob", "not json")
+                .append("status", "active")
+                .append("createdate", "2019-08-01 10:11:12")
+                .append("updatedate", "bad date");
+
+        Document expected = interpreted.apply(source);
+        Document actual = generated.apply(source);
+        expected.remove("_id");
+        assertNotNull(actual.remove("_id"));
+        assertEquals(expected, actual);
+
+        assertThrows(IllegalArgumentException.class, () -> new GeneratedMapping(MappingSpec.load("mappings/group.yaml").fields)
+                .apply(new Document("id", "not a uuid")));
+    }
+
+    @Test
+    void rejectsBadRequiredField() {
+        CompiledMapping mapping = MappingSpec.load("mappings/group.yaml").compile();
+
+        assertThrows(IllegalArgumentException.class, () -> mapping.apply(new Document("id", "not a uuid")));
+        assertThrows(IllegalArgumentException.class, () -> mapping.apply(new Document("name", "no id")));
+    }
+
+}
@@ -4,6 +4,8 @@ import org.junit.jupiter.api.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import static org.junit.jupiter.api.Assertions.*;
+
 public class RunnerTest {
     Logger logger = LoggerFactory.getLogger(getClass());
 
@@ -20,4 +22,32 @@ public class RunnerTest {
         runner.run();
     }
 
+    /**
+     * Loads the same source with the Flux pipeline and then with the blocking engine. Both must load
+     * every document and verify against the source, and the two load times are printed.
+     */
+    @Test
+    void engines() {
+        RunnerMember runner = new RunnerMember(uri, "etl.src", "etl.tgt");
+
+        runner.populateTestData(1000000);
+
+        runner.setEngine("reactive");
+        long start = System.currentTimeMillis();
+        runner.run();
+        long reactiveMillis = System.currentTimeMillis() - start;
+        long reactive = runner.loaded.get();
+        assertEquals(1000000, reactive);
+        assertTrue(runner.verify());
+
+        runner.setEngine("blocking");
+        start = System.currentTimeMillis();
+        runner.run();
+        long blockingMillis = System.currentTimeMillis() - start;
+        assertEquals(reactive, runner.loaded.get());
+        assertTrue(runner.verify());
+
+        System.out.println("reactive engine " + reactiveMillis + "ms, blocking engine " + blockingMillis + "ms");
+    }
+
 }
@@ -0,0 +1,59 @@
+package org.mongodb.etl;
+
+import com.mongodb.MongoClientSettings;
+import org.bson.BsonBinaryWriter;
+import org.bson.Document;
+import org.bson.UuidRepresentation;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DocumentCodec;
+import org.bson.codecs.EncoderContext;
+import org.bson.codecs.UuidCodec;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.io.BasicOutputBuffer;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.UUID;
+
+import static org.bson.codecs.configuration.CodecRegistries.fromCodecs;
+import static org.bson.codecs.configuration.CodecRegistries.fromRegistries;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TargetDocumentCodecTest {
+
+    private final CodecRegistry registry = fromRegistries(
+            fromCodecs(new UuidCodec(UuidRepresentation.STANDARD)),
+            MongoClientSettings.getDefaultCodecRegistry());
+
+    @Test
+    void encodesLikeDocumentCodec() {
+        UUID uuid = UUID.randomUUID();
+        Document doc = new Document("groupid", Uuids.toStandardBinary(uuid))
+                .append("_id", new ObjectId())
+                .append("memberid", "12345")
+                .append("count", 3)
+                .append("total", 3L)
+                .append("system", true)
+                .append("score", 0.5)
+                .append("createdat", new Date(1564654272000L))
+                .append("parentid", null)
+                .append("permissions", Arrays.asList("read", "write", null))
+                .append("assoc", new Document("_id", 1).append("uuid", uuid).append("role", "teacher"));
+
+        for (boolean collectible : new boolean[]{true, false}) {
+            assertArrayEquals(
+                    encode(new DocumentCodec(registry), doc, collectible),
+                    encode(new TargetDocumentCodec(registry), doc, collectible));
+        }
+    }
+
+    private static byte[] encode(Codec<Document> codec, Document doc, boolean collectible) {
+        BasicOutputBuffer buffer = new BasicOutputBuffer();
+        codec.encode(new BsonBinaryWriter(buffer), doc,
+                EncoderContext.builder().isEncodingCollectibleDocument(collectible).build());
+        return buffer.toByteArray();
+    }
+
+}
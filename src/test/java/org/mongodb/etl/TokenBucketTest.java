@@ -0,0 +1,58 @@
+package org.mongodb.etl;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TokenBucketTest {
+
+    private static final long SECOND = 1_000_000_000L;
+
+    @Test
+    void unlimited() {
+        TokenBucket bucket = new TokenBucket(0);
+        assertEquals(0, bucket.reserve(1_000_000, 0));
+        assertEquals(0, bucket.reserve(1_000_000, 0));
+    }
+
+    @Test
+    void paysForLargeReservationAfterwards() {
+        TokenBucket bucket = new TokenBucket(1000);
+        long now = System.nanoTime() + 10 * SECOND;
+
+        // one second of burst has built up, the batch goes through and the next caller waits for it
+        assertEquals(0, bucket.reserve(1000, now));
+        assertEquals(0, bucket.reserve(2000, now));
+        assertEquals(2 * SECOND, bucket.reserve(1, now));
+        assertEquals(SECOND, bucket.reserve(1, now + SECOND + 1000 * 1000));
+    }
+
+    @Test
+    void sustainsRate() {
+        TokenBucket bucket = new TokenBucket(100);
+        long now = System.nanoTime();
+        long waited = 0;
+        for (int i = 0; i < 1000; i++)
+            waited += bucket.reserve(1, now + waited);
+
+        // 1000 permits at 100/s with up to one second of initial burst
+        assertTrue(waited >= 9 * SECOND - SECOND / 100 && waited <= 10 * SECOND, String.valueOf(waited));
+    }
+
+    @Test
+    void dropsInsteadOfWaiting() {
+        TokenBucket bucket = new TokenBucket(10);
+        long now = System.nanoTime() + 10 * SECOND;
+
+        // one second of burst, then one permit per 100ms
+        int acquired = 0;
+        for (int i = 0; i < 100; i++) {
+            if (bucket.tryAcquire(1, now))
+                acquired++;
+        }
+        assertEquals(11, acquired);
+        assertFalse(bucket.tryAcquire(1, now + SECOND / 20));
+        assertTrue(bucket.tryAcquire(1, now + SECOND / 10));
+    }
+
+}
@@ -0,0 +1,57 @@
+package org.mongodb.etl;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UuidSetTest {
+
+    @Test
+    void addAndContains() {
+        UuidSet set = new UuidSet(100000);
+        List<UUID> added = new ArrayList<>();
+
+        for (int i = 0; i < 100000; i++) {
+            UUID uuid = UUID.randomUUID();
+            added.add(uuid);
+            assertTrue(set.add(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits()));
+        }
+
+        assertEquals(100000, set.size());
+
+        for (UUID uuid : added) {
+            assertTrue(set.contains(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits()));
+            assertFalse(set.add(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits()));
+        }
+
+        for (int i = 0; i < 1000; i++) {
+            UUID uuid = UUID.randomUUID();
+            assertFalse(set.contains(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits()));
+        }
+    }
+
+    @Test
+    void zeroKey() {
+        UuidSet set = new UuidSet(10);
+
+        assertFalse(set.contains(0, 0));
+        assertTrue(set.add(0, 0));
+        assertTrue(set.contains(0, 0));
+        assertEquals(1, set.size());
+    }
+
+    @Test
+    void full() {
+        UuidSet set = new UuidSet(10);
+
+        assertThrows(IllegalStateException.class, () -> {
+            for (long i = 1; i < 100; i++)
+                set.add(i, i);
+        });
+    }
+
+}
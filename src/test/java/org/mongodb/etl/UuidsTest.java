@@ -0,0 +1,46 @@
+package org.mongodb.etl;
+
+import org.bson.types.Binary;
+import org.junit.jupiter.api.Test;
+
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UuidsTest {
+
+    @Test
+    void matchesUuidFromString() {
+        for (int i = 0; i < 10000; i++) {
+            UUID uuid = UUID.randomUUID();
+            String s = i % 2 == 0 ? uuid.toString() : uuid.toString().toUpperCase();
+
+            Binary binary = Uuids.toStandardBinary(s);
+
+            assertEquals(Uuids.STANDARD_SUBTYPE, binary.getType());
+            assertArrayEquals(Uuids.toStandardBinary(uuid).getData(), binary.getData());
+            assertEquals(uuid, Uuids.fromStandardBinary(binary));
+            assertEquals(uuid.getMostSignificantBits(), Uuids.mostSignificantBits(s));
+            assertEquals(uuid.getLeastSignificantBits(), Uuids.leastSignificantBits(s));
+        }
+    }
+
+    @Test
+    void rejectsInvalid() {
+        String[] invalid = {
+                null,
+                "",
+                "6ba7b810-9dad-11d1-80b4-00c04fd430c",
+                "6ba7b810-9dad-11d1-80b4-00c04fd430c88",
+                "6ba7b8109dad-11d1-80b4-00c04fd430c8-",
+                "6ba7b810-9dad-11d1-80b4+00c04fd430c8",
+                "6ba7b810-9dad-11d1-80b4-00c04fd430cg",
+                "6ba7b810-9dad-11d1-80b4-00c04fd430c\u0668",
+        };
+
+        for (String s : invalid) {
+            assertThrows(IllegalArgumentException.class, () -> Uuids.toStandardBinary(s), s);
+        }
+    }
+
+}